@@ -0,0 +1,170 @@
+package net.neoforged.installerrewriter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+
+/**
+ * Generates jars shaped like the installers found on the maven: the installer classes and their bundled libraries, the
+ * profile json files, and embedded jars which are already compressed. The contents are generated from a fixed seed, so
+ * that every run benchmarks the same archives.
+ */
+final class InstallerJars {
+    enum Shape {
+        // A legacy installer, bundling a universal jar
+        LEGACY(350, 2 * 1024 * 1024),
+        // A recent installer, with more classes but no embedded jar
+        MODERN(900, 0);
+
+        final int classes;
+        final int embedded;
+
+        Shape(int classes, int embedded) {
+            this.classes = classes;
+            this.embedded = embedded;
+        }
+    }
+
+    private static final String[] PACKAGES = {
+            "net/minecraftforge/installer/", "net/minecraftforge/installer/actions/", "net/minecraftforge/installer/json/",
+            "com/google/gson/", "com/google/gson/internal/", "joptsimple/", "joptsimple/util/", "neoforged/"
+    };
+
+    // Class files are mostly made of constant pool entries, which repeat the same few names
+    private static final String[] TOKENS = {
+            "java/lang/Object", "java/lang/String", "Ljava/util/List;", "<init>", "()V", "Code", "LineNumberTable",
+            "LocalVariableTable", "this", "StackMapTable", "SourceFile", "java/io/File", "Ljava/util/function/Supplier;",
+            "net/minecraftforge/installer/json/Util", "InnerClasses", "Signature", "RuntimeVisibleAnnotations"
+    };
+
+    private InstallerJars() {
+    }
+
+    /**
+     * Generate an installer of the given shape. Signed installers list the digests of their files in the manifest, and
+     * have signature files.
+     */
+    static byte[] installer(Shape shape, boolean signed) throws IOException {
+        final var random = new Random(shape.ordinal() * 31L + (signed ? 1 : 0));
+        final Map<String, byte[]> files = new LinkedHashMap<>();
+        for (int i = 0; i < shape.classes; i++) {
+            files.put(PACKAGES[i % PACKAGES.length] + "Class" + i + ".class", classFile(random));
+        }
+        files.put("META-INF/maven/net.minecraftforge/installer/pom.xml", text(random, 2 * 1024));
+        files.put("META-INF/maven/net.minecraftforge/installer/pom.properties", text(random, 128));
+        files.put("install_profile.json", text(random, 16 * 1024));
+        files.put("version.json", text(random, 24 * 1024));
+        files.put("data/client.lzma", random(random, 96 * 1024));
+        files.put("data/server.lzma", random(random, 96 * 1024));
+        files.put("big_logo.png", random(random, 20 * 1024));
+        if (shape.embedded > 0) {
+            files.put("maven/net/minecraftforge/forge/1.12.2/forge-1.12.2-universal.jar", random(random, shape.embedded));
+        }
+
+        final var manifest = manifest(null);
+        if (signed) {
+            for (var file : files.entrySet()) {
+                final var attributes = new Attributes();
+                attributes.putValue("SHA-256-Digest", Base64.getEncoder().encodeToString(sha256(file.getValue())));
+                manifest.getEntries().put(file.getKey(), attributes);
+            }
+            files.put("META-INF/NEOFORGE.SF", text(random, 64 * files.size()));
+            files.put("META-INF/NEOFORGE.RSA", random(random, 4 * 1024));
+        }
+        return jar(manifest, files);
+    }
+
+    /**
+     * Generate the new installer merged by {@link NewVersionUpdate}, with the given version.
+     */
+    static byte[] update(String version) throws IOException {
+        final var random = new Random(version.hashCode());
+        final Map<String, byte[]> files = new LinkedHashMap<>();
+        for (int i = 0; i < 250; i++) {
+            files.put(PACKAGES[i % 3] + "Class" + i + ".class", classFile(random));
+        }
+        files.put("META-INF/maven/net.neoforged/legacyinstaller/pom.xml", text(random, 2 * 1024));
+        return jar(manifest(version), files);
+    }
+
+    private static Manifest manifest(String version) {
+        final var manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        manifest.getMainAttributes().put(Attributes.Name.MAIN_CLASS, "net.minecraftforge.installer.SimpleInstaller");
+        if (version != null) {
+            final var attributes = new Attributes();
+            attributes.put(Attributes.Name.IMPLEMENTATION_VERSION, version);
+            manifest.getEntries().put(NewVersionUpdate.ATTR, attributes);
+        }
+        return manifest;
+    }
+
+    private static byte[] jar(Manifest manifest, Map<String, byte[]> files) throws IOException {
+        final var out = new ByteArrayOutputStream();
+        try (var jar = new JarOutputStream(out, manifest)) {
+            for (var file : files.entrySet()) {
+                final var entry = new JarEntry(file.getKey());
+                entry.setTime(1337);
+                // Archives are stored as they are, as in the real installers
+                if (file.getKey().endsWith(".jar")) {
+                    entry.setMethod(ZipEntry.STORED);
+                    entry.setSize(file.getValue().length);
+                    final var crc = new CRC32();
+                    crc.update(file.getValue());
+                    entry.setCrc(crc.getValue());
+                }
+                jar.putNextEntry(entry);
+                jar.write(file.getValue());
+                jar.closeEntry();
+            }
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] classFile(Random random) {
+        final var out = new ByteArrayOutputStream();
+        out.writeBytes(new byte[]{(byte) 0xCA, (byte) 0xFE, (byte) 0xBA, (byte) 0xBE});
+        final int size = 512 + random.nextInt(8 * 1024);
+        while (out.size() < size) {
+            if (random.nextInt(4) == 0) {
+                out.write(random.nextInt(256));
+            } else {
+                out.writeBytes(TOKENS[random.nextInt(TOKENS.length)].getBytes());
+            }
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] text(Random random, int size) {
+        final var out = new ByteArrayOutputStream();
+        while (out.size() < size) {
+            out.writeBytes(("\"" + TOKENS[random.nextInt(TOKENS.length)] + "\": " + random.nextInt(1000) + ",\n").getBytes());
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] random(Random random, int size) {
+        final byte[] bytes = new byte[size];
+        random.nextBytes(bytes);
+        return bytes;
+    }
+
+    private static byte[] sha256(byte[] data) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(data);
+        } catch (NoSuchAlgorithmException exception) {
+            throw new IllegalStateException(exception);
+        }
+    }
+}
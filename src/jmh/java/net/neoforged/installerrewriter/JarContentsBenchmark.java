@@ -0,0 +1,99 @@
+package net.neoforged.installerrewriter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.jar.Manifest;
+
+/**
+ * Benchmarks the operations of {@link JarContents} used when rewriting installers. As they all modify the jar, every
+ * benchmark loads its own copy of the installer, the cost of which is measured by {@link #load()}.
+ * <p>
+ * Run with {@code ./gradlew jmh}, which also reports the allocations of each operation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class JarContentsBenchmark {
+    @Param({"LEGACY", "MODERN"})
+    public String shape;
+
+    @Param({"false", "true"})
+    public boolean signed;
+
+    private byte[] installer;
+    private JarContents update;
+    private NewVersionUpdate rewrite;
+
+    @Setup
+    public void setup() throws IOException {
+        installer = InstallerJars.installer(InstallerJars.Shape.valueOf(shape), signed);
+        update = JarContents.loadJar(new ByteArrayInputStream(InstallerJars.update("3.0.0")));
+        final var newVersion = JarContents.loadJar(new ByteArrayInputStream(InstallerJars.update("3.0.0")));
+        newVersion.precompress();
+        rewrite = new NewVersionUpdate(newVersion);
+    }
+
+    private JarContents jar() throws IOException {
+        return JarContents.loadJar(new ByteArrayInputStream(installer));
+    }
+
+    @Benchmark
+    public Manifest load() throws IOException {
+        return jar().getManifest();
+    }
+
+    @Benchmark
+    public void saveUnchanged() throws IOException {
+        jar().writeTo(OutputStream.nullOutputStream());
+    }
+
+    @Benchmark
+    public void saveModified() throws IOException {
+        // Modifying a file listed in the manifest of signed installers makes saving check the digests and strip the signatures
+        final var jar = jar();
+        jar.write("install_profile.json", "{}".getBytes(StandardCharsets.UTF_8));
+        jar.writeTo(OutputStream.nullOutputStream());
+    }
+
+    @Benchmark
+    public void deleteFolder(Blackhole blackhole) throws IOException {
+        final var jar = jar();
+        jar.deleteFolder("net");
+        jar.deleteFolder("com");
+        jar.deleteFolder("joptsimple");
+        blackhole.consume(jar);
+    }
+
+    @Benchmark
+    public void merge(Blackhole blackhole) throws IOException {
+        final var jar = jar();
+        jar.merge(update, true);
+        blackhole.consume(jar);
+    }
+
+    @Benchmark
+    public void newVersionUpdate() throws Exception {
+        final var jar = jar();
+        rewrite.rewrite(new Installer("installer.jar", "1.0", jar));
+        jar.writeTo(OutputStream.nullOutputStream());
+    }
+}
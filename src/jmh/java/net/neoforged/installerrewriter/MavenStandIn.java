@@ -0,0 +1,262 @@
+package net.neoforged.installerrewriter;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.stream.IntStream;
+
+/**
+ * An in-memory stand-in for a maven repository, implementing the requests made by {@link MavenInstallerProvider}:
+ * GET (including ranges), HEAD, PUT, with the checksums generated on request, and DELETE. Latency, bandwidth, a limit
+ * of concurrent requests and failures can be injected to simulate a remote repository.
+ * <p>
+ * Run {@code ./gradlew mavenStandIn --args="<versions>"} to serve synthetic installers, and point the rewriter at the
+ * printed url.
+ */
+final class MavenStandIn implements AutoCloseable {
+    private final Map<String, byte[]> files = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> requests = new ConcurrentHashMap<>();
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final HttpServer server;
+
+    private volatile Duration latency = Duration.ZERO;
+    // In bytes per second and per request, or 0 if unlimited
+    private volatile long bandwidth;
+    private volatile double failureRate;
+    private volatile int failureStatus = 500;
+    private volatile Set<String> failingMethods = Set.of();
+    private volatile boolean overwrite = true;
+    // The maximum amount of requests handled at once, or 0 if unlimited
+    private volatile int capacity;
+    private final AtomicInteger active = new AtomicInteger();
+
+    MavenStandIn() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.setExecutor(executor);
+        server.createContext("/", exchange -> {
+            try (exchange) {
+                final int limit = capacity;
+                if (active.incrementAndGet() > limit && limit > 0) {
+                    exchange.getRequestBody().transferTo(OutputStream.nullOutputStream());
+                    exchange.getResponseHeaders().add("Retry-After", "1");
+                    exchange.sendResponseHeaders(429, -1);
+                    return;
+                }
+                handle(exchange);
+            } finally {
+                active.decrementAndGet();
+            }
+        });
+        server.start();
+    }
+
+    /**
+     * {@return the url of the repository}
+     */
+    URI url() {
+        return URI.create("http://localhost:" + server.getAddress().getPort() + "/");
+    }
+
+    /**
+     * Delay the response to every request by the given latency.
+     */
+    MavenStandIn latency(Duration latency) {
+        this.latency = latency;
+        return this;
+    }
+
+    /**
+     * Limit the transfer rate of the body of each request and response to the given amount of bytes per second.
+     */
+    MavenStandIn bandwidth(long bytesPerSecond) {
+        this.bandwidth = bytesPerSecond;
+        return this;
+    }
+
+    /**
+     * Fail the given proportion of the requests with the given methods with the given status. Requests failed with a
+     * {@code 429} or a {@code 503} are told to retry after a second.
+     */
+    MavenStandIn failures(double rate, int status, String... methods) {
+        this.failureRate = rate;
+        this.failureStatus = status;
+        this.failingMethods = Set.of(methods);
+        return this;
+    }
+
+    /**
+     * Reject the requests exceeding the given amount of concurrent requests with a {@code 429}, telling them to retry
+     * after a second, as with rate-limited repositories.
+     */
+    MavenStandIn capacity(int concurrent) {
+        this.capacity = concurrent;
+        return this;
+    }
+
+    /**
+     * Set whether existing files may be overwritten. If not, uploading to an existing file fails with a {@code 409}, as
+     * with release repositories.
+     */
+    MavenStandIn overwrite(boolean overwrite) {
+        this.overwrite = overwrite;
+        return this;
+    }
+
+    /**
+     * Publish the installers of the given versions of the artifact, replacing the ones already published, and the
+     * metadata listing them.
+     */
+    void publish(String artifactPath, List<String> versions, Function<String, byte[]> installer) {
+        final var split = artifactPath.split(":");
+        final var folder = "/" + split[0].replace('.', '/') + "/" + split[1] + "/";
+        final var metadata = new StringBuilder("<metadata><versioning><versions>");
+        for (var version : versions) {
+            put(folder + version + "/" + split[1] + "-" + version + "-installer.jar", installer.apply(version), true);
+            metadata.append("<version>").append(version).append("</version>");
+        }
+        metadata.append("</versions></versioning></metadata>");
+        put(folder + "maven-metadata.xml", metadata.toString().getBytes(StandardCharsets.UTF_8), false);
+    }
+
+    /**
+     * {@return the amount of requests received with the given method}
+     */
+    long requests(String method) {
+        final var count = requests.get(method);
+        return count == null ? 0 : count.sum();
+    }
+
+    private void put(String path, byte[] content, boolean checksums) {
+        files.put(path, content);
+        if (checksums) {
+            try {
+                for (var checksum : MultiDigest.hash(new ByteArrayInputStream(content)).entrySet()) {
+                    files.put(path + "." + checksum.getKey(), checksum.getValue().getBytes(StandardCharsets.UTF_8));
+                }
+            } catch (IOException exception) {
+                throw new IllegalStateException(exception);
+            }
+        }
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        final var method = exchange.getRequestMethod();
+        final var path = exchange.getRequestURI().getPath();
+        requests.computeIfAbsent(method, m -> new LongAdder()).increment();
+        sleep(latency.toNanos());
+
+        if (failingMethods.contains(method) && ThreadLocalRandom.current().nextDouble() < failureRate) {
+            exchange.getRequestBody().transferTo(OutputStream.nullOutputStream());
+            if (failureStatus == 401)
+                exchange.getResponseHeaders().add("WWW-Authenticate", "Basic realm=\"maven\"");
+            if (failureStatus == 429 || failureStatus == 503)
+                exchange.getResponseHeaders().add("Retry-After", "1");
+            exchange.sendResponseHeaders(failureStatus, -1);
+            return;
+        }
+
+        final var file = files.get(path);
+        switch (method) {
+            case "GET" -> {
+                if (file == null) {
+                    exchange.sendResponseHeaders(404, -1);
+                    return;
+                }
+                final var range = exchange.getRequestHeaders().getFirst("Range");
+                int start = 0;
+                int end = file.length - 1;
+                if (range != null && range.startsWith("bytes=")) {
+                    final var bounds = range.substring("bytes=".length());
+                    if (bounds.startsWith("-")) {
+                        start = Math.max(0, file.length - Integer.parseInt(bounds.substring(1)));
+                    } else {
+                        final var split = bounds.split("-", 2);
+                        start = Integer.parseInt(split[0]);
+                        if (!split[1].isEmpty())
+                            end = Math.min(end, Integer.parseInt(split[1]));
+                    }
+                    exchange.getResponseHeaders().add("Content-Range", "bytes " + start + "-" + end + "/" + file.length);
+                }
+                exchange.sendResponseHeaders(range == null ? 200 : 206, end - start + 1);
+                transfer(new ByteArrayInputStream(file, start, end - start + 1), exchange.getResponseBody());
+            }
+            case "HEAD" -> {
+                if (file == null) {
+                    exchange.sendResponseHeaders(404, -1);
+                    return;
+                }
+                exchange.getResponseHeaders().add("Content-Length", Integer.toString(file.length));
+                exchange.sendResponseHeaders(200, -1);
+            }
+            case "PUT" -> {
+                if (file != null && !overwrite) {
+                    exchange.getRequestBody().transferTo(OutputStream.nullOutputStream());
+                    exchange.sendResponseHeaders(409, -1);
+                    return;
+                }
+                final var content = new ByteArrayOutputStream();
+                transfer(exchange.getRequestBody(), content);
+                put(path, content.toByteArray(), Boolean.parseBoolean(exchange.getRequestHeaders().getFirst("X-Generate-Checksums")));
+                exchange.sendResponseHeaders(200, -1);
+            }
+            case "DELETE" -> exchange.sendResponseHeaders(files.remove(path) == null ? 404 : 204, -1);
+            default -> exchange.sendResponseHeaders(405, -1);
+        }
+    }
+
+    private void transfer(InputStream in, OutputStream out) throws IOException {
+        final byte[] buffer = new byte[64 * 1024];
+        int read;
+        while ((read = in.read(buffer)) >= 0) {
+            out.write(buffer, 0, read);
+            final long limit = bandwidth;
+            if (limit > 0)
+                sleep(read * 1_000_000_000L / limit);
+        }
+    }
+
+    private static void sleep(long nanos) throws IOException {
+        if (nanos <= 0) return;
+        try {
+            Thread.sleep(Duration.ofNanos(nanos));
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            throw new IOException(exception);
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.close();
+    }
+
+    public static void main(String[] args) throws Exception {
+        final int count = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+        final var installer = InstallerJars.installer(InstallerJars.Shape.MODERN, false);
+        final var server = new MavenStandIn();
+        server.publish("net.neoforged:neoforge", IntStream.range(0, count).mapToObj(i -> "20.4." + i).toList(), v -> installer);
+        System.out.println("Serving " + count + " installers of net.neoforged:neoforge at " + server.url());
+        Thread.currentThread().join();
+    }
+}
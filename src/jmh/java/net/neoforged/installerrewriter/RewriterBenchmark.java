@@ -0,0 +1,105 @@
+package net.neoforged.installerrewriter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+/**
+ * Measures the throughput of whole runs of the {@link Rewriter} against a {@link MavenStandIn}, in installers per
+ * second. Every run starts from a freshly published repository, so that all installers need to be rewritten.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 2, batchSize = 1)
+@Measurement(iterations = 5, batchSize = 1)
+public class RewriterBenchmark {
+    private static final int VERSIONS = 64;
+    private static final String ARTIFACT = "net.neoforged:neoforge";
+
+    // The delay before each response, in milliseconds
+    @Param({"0", "25"})
+    public int latency;
+
+    // The bandwidth of each request, in KiB per second, or 0 if unlimited
+    @Param({"0", "8192"})
+    public int bandwidth;
+
+    // The proportion of uploads failing
+    @Param({"0", "0.05"})
+    public double uploadFailures;
+
+    // The amount of requests the repository handles at once, or 0 if unlimited. Set it with -p capacity=8 to compare
+    // the fixed and adaptive transfer limits against a rate-limited repository
+    @Param({"0"})
+    public int capacity;
+
+    // Whether the amount of concurrent transfers adapts to the repository, or is fixed to the amount of download and upload workers
+    @Param({"false", "true"})
+    public boolean adaptive;
+
+    private final List<String> versions = IntStream.range(0, VERSIONS).mapToObj(i -> "20.4." + i).toList();
+    private MavenStandIn server;
+    private byte[] installer;
+    private NewVersionUpdate rewrite;
+    private Metrics metrics;
+    private InstallerProvider provider;
+
+    @Setup
+    public void setup() throws Exception {
+        installer = InstallerJars.installer(InstallerJars.Shape.LEGACY, true);
+        final var update = JarContents.loadJar(new ByteArrayInputStream(InstallerJars.update("3.0.0")));
+        update.precompress();
+        rewrite = new NewVersionUpdate(update);
+        server = new MavenStandIn()
+                .latency(Duration.ofMillis(latency))
+                .bandwidth(bandwidth * 1024L)
+                .failures(uploadFailures, 503, "PUT")
+                .capacity(capacity);
+    }
+
+    @Setup(Level.Invocation)
+    public void publish() {
+        // Runs take hundreds of milliseconds, so resetting the repository in between doesn't skew the measurement
+        server.publish(ARTIFACT, versions, version -> installer);
+        metrics = new Metrics();
+        final var defaults = Rewriter.Limits.defaults();
+        final int workers = defaults.downloads() + defaults.uploads();
+        final var transfers = adaptive ? TransferLimit.adaptive(2, workers) : TransferLimit.fixed(workers);
+        provider = InstallerProvider.fromMaven(server.url(), "user", "token", ARTIFACT, null, Duration.ofSeconds(30), transfers, metrics);
+    }
+
+    @TearDown(Level.Invocation)
+    public void closeProvider() {
+        provider.close();
+    }
+
+    @TearDown
+    public void tearDown() {
+        server.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(VERSIONS)
+    public void rewrite() throws Exception {
+        new Rewriter(List.of(rewrite), metrics).run(provider, versions, Rewriter.Limits.defaults(), MemoryBudget.UNLIMITED, () -> PayloadStore.HEAP, null, false, false);
+    }
+}
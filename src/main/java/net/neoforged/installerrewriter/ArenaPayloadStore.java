@@ -0,0 +1,27 @@
+package net.neoforged.installerrewriter;
+
+import java.lang.foreign.Arena;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A store allocating from a shared {@link Arena}, as an installer is downloaded, rewritten and uploaded by different threads.
+ * <p>
+ * The foreign memory API is a preview API in Java 21, so this is the only class that uses it: the others can be loaded
+ * without {@code --enable-preview}.
+ */
+final class ArenaPayloadStore implements PayloadStore {
+    private final Arena arena = Arena.ofShared();
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    @Override
+    public ByteBuffer allocate(int size) {
+        return arena.allocate(size).asByteBuffer();
+    }
+
+    @Override
+    public void close() {
+        if (closed.compareAndSet(false, true))
+            arena.close();
+    }
+}
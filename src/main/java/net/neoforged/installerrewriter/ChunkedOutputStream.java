@@ -0,0 +1,65 @@
+package net.neoforged.installerrewriter;
+
+import java.io.OutputStream;
+import java.net.http.HttpRequest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * An in-memory output stream that keeps its contents as a list of fixed size chunks instead of one growing array,
+ * so that the written data never has to be copied as a whole. The contents can be {@link #publisher() published} as
+ * a request body any number of times.
+ */
+class ChunkedOutputStream extends OutputStream {
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    private final List<byte[]> chunks = new ArrayList<>();
+    private byte[] current;
+    private int pos = CHUNK_SIZE;
+    private long size;
+
+    @Override
+    public void write(int b) {
+        if (pos == CHUNK_SIZE)
+            next();
+        current[pos++] = (byte) b;
+        size++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+        size += len;
+        while (len > 0) {
+            if (pos == CHUNK_SIZE)
+                next();
+            final int n = Math.min(len, CHUNK_SIZE - pos);
+            System.arraycopy(b, off, current, pos, n);
+            pos += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    private void next() {
+        current = new byte[CHUNK_SIZE];
+        chunks.add(current);
+        pos = 0;
+    }
+
+    long size() {
+        return size;
+    }
+
+    HttpRequest.BodyPublisher publisher() {
+        // Trim the last chunk so that the publisher doesn't send its unused tail
+        if (current != null && pos < CHUNK_SIZE) {
+            current = Arrays.copyOf(current, pos);
+            chunks.set(chunks.size() - 1, current);
+            pos = CHUNK_SIZE;
+        }
+        if (size == 0)
+            return HttpRequest.BodyPublishers.noBody();
+        return HttpRequest.BodyPublishers.fromPublisher(HttpRequest.BodyPublishers.ofByteArrays(List.copyOf(chunks)), size);
+    }
+}
@@ -0,0 +1,189 @@
+package net.neoforged.installerrewriter;
+
+import com.google.gson.JsonParseException;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * An index of the installers in a directory tree, mapping each version to the path of its installer.
+ * <p>
+ * The index can be cached in a file between runs. It also records the modification time of every directory of the tree:
+ * adding, removing or renaming a file changes the modification time of its directory, so comparing them is enough to
+ * tell whether the cached index is still valid, without listing any directory.
+ */
+final class DirectoryIndex {
+    private static final String SUFFIX = "-installer.jar";
+
+    // Not a record, as the version of Gson we use cannot deserialize records
+    private static final class Snapshot {
+        String root;
+        Map<String, Long> directories;
+        Map<String, String> installers;
+
+        Snapshot(String root, Map<String, Long> directories, Map<String, String> installers) {
+            this.root = root;
+            this.directories = directories;
+            this.installers = installers;
+        }
+    }
+
+    private final Path root;
+    private final @Nullable Path cache;
+    // Relative directory -> modification time in milliseconds
+    private final Map<String, Long> directories;
+    // Version -> relative path of its installer
+    private final Map<String, String> installers;
+    private volatile boolean dirty;
+
+    private DirectoryIndex(Path root, @Nullable Path cache, Map<String, Long> directories, Map<String, String> installers) {
+        this.root = root;
+        this.cache = cache;
+        this.directories = new ConcurrentHashMap<>(directories);
+        this.installers = new TreeMap<>(installers);
+    }
+
+    /**
+     * Load the index of the given directory from the {@code cache} file if it is still valid, or scan the directory
+     * otherwise and write the new index to the cache.
+     */
+    static DirectoryIndex load(Path root, @Nullable Path cache) throws IOException {
+        root = root.toAbsolutePath().normalize();
+        // Writing the cache would change the modification time of its directory, invalidating the index it just wrote
+        if (cache != null && cache.toAbsolutePath().normalize().startsWith(root))
+            throw new IllegalArgumentException("The index of " + root + " cannot be cached inside of it");
+        if (cache != null && Files.exists(cache)) {
+            final Snapshot snapshot;
+            try {
+                snapshot = Utils.GSON.fromJson(Files.readString(cache, StandardCharsets.UTF_8), Snapshot.class);
+            } catch (JsonParseException exception) {
+                Rewriter.LOG.warn("Ignoring malformed directory index {}: {}", cache, exception.getMessage());
+                return scan(root, cache);
+            }
+
+            if (snapshot != null && snapshot.directories != null && snapshot.installers != null
+                    && root.toString().equals(snapshot.root) && isValid(root, snapshot.directories)) {
+                Rewriter.LOG.info("Using cached index of {} with {} installers", root, snapshot.installers.size());
+                return new DirectoryIndex(root, cache, snapshot.directories, snapshot.installers);
+            }
+            Rewriter.LOG.info("Cached index of {} is outdated", root);
+        }
+        return scan(root, cache);
+    }
+
+    private static boolean isValid(Path root, Map<String, Long> directories) {
+        return directories.entrySet().parallelStream().allMatch(entry -> {
+            try {
+                return Files.getLastModifiedTime(root.resolve(entry.getKey())).toMillis() == entry.getValue();
+            } catch (IOException exception) {
+                return false;
+            }
+        });
+    }
+
+    private static DirectoryIndex scan(Path root, @Nullable Path cache) throws IOException {
+        final long start = System.currentTimeMillis();
+        final Map<String, Long> directories = new ConcurrentHashMap<>();
+        final Map<String, String> installers = new ConcurrentHashMap<>();
+        final var visitor = new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                directories.put(relativize(root, dir), attrs.lastModifiedTime().toMillis());
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                final String name = file.getFileName().toString();
+                if (name.endsWith(SUFFIX)) {
+                    // Keep the smallest path if multiple installers have the same version, so that the index is deterministic
+                    installers.merge(toVersion(name), relativize(root, file), (a, b) -> a.compareTo(b) <= 0 ? a : b);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        };
+
+        // Walk the subdirectories of the root in parallel, as large trees are usually split by artifact at the top
+        final List<Path> children = new ArrayList<>();
+        try (final var list = Files.list(root)) {
+            list.forEach(children::add);
+        }
+        directories.put("", Files.getLastModifiedTime(root).toMillis());
+        children.parallelStream().forEach(child -> {
+            try {
+                Files.walkFileTree(child, visitor);
+            } catch (NoSuchFileException ignored) {
+                // Removed while scanning, the directory modification times will invalidate the index on the next run
+            } catch (IOException exception) {
+                throw new UncheckedIOException(exception);
+            }
+        });
+
+        Rewriter.LOG.info("Indexed {} installers in {} directories of {} in {}ms", installers.size(), directories.size(), root, System.currentTimeMillis() - start);
+        final var index = new DirectoryIndex(root, cache, directories, installers);
+        index.dirty = true;
+        index.save();
+        return index;
+    }
+
+    static String toVersion(String fileName) {
+        return fileName.replace("neoforge-", "").replace("forge-", "").replace(SUFFIX, "").replace("installer.jar", "");
+    }
+
+    private static String relativize(Path root, Path path) {
+        return root.relativize(path).toString().replace('\\', '/');
+    }
+
+    List<String> versions() {
+        return List.copyOf(installers.keySet());
+    }
+
+    /**
+     * {@return the path of the installer of the given version relative to the root, or {@code null} if there is none}
+     */
+    @Nullable
+    String path(String version) {
+        return installers.get(version);
+    }
+
+    /**
+     * Record the current modification time of a directory this process wrote to, so that the cached index stays valid.
+     */
+    void touch(Path directory) throws IOException {
+        final String relative = relativize(root, directory.toAbsolutePath().normalize());
+        if (directories.containsKey(relative)) {
+            directories.put(relative, Files.getLastModifiedTime(directory).toMillis());
+            dirty = true;
+        }
+    }
+
+    /**
+     * Write the index to its cache file, if it changed since it was loaded.
+     */
+    void save() throws IOException {
+        if (cache == null || !dirty) return;
+
+        final var snapshot = new Snapshot(root.toString(), new TreeMap<>(directories), installers);
+        final var absolute = cache.toAbsolutePath();
+        if (absolute.getParent() != null)
+            Files.createDirectories(absolute.getParent());
+        final var temp = absolute.resolveSibling(absolute.getFileName() + ".tmp");
+        Files.writeString(temp, Utils.GSON.toJson(snapshot), StandardCharsets.UTF_8);
+        Files.move(temp, absolute, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        dirty = false;
+    }
+}
@@ -0,0 +1,174 @@
+package net.neoforged.installerrewriter;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Provides installers from a local directory, such as a mirror of a maven repository. The directory is indexed once,
+ * see {@link DirectoryIndex}.
+ */
+class DirectoryInstallerProvider implements InstallerProvider {
+    private final Path root;
+    private final @Nullable Path backup;
+    private final @Nullable Path indexCache;
+    private final boolean map;
+    private final Metrics metrics;
+    // Not using synchronized, as scanning inside a monitor would pin the virtual thread
+    private final ReentrantLock indexLock = new ReentrantLock();
+    private @Nullable DirectoryIndex index;
+
+    DirectoryInstallerProvider(Path root, @Nullable Path backup, @Nullable Path indexCache, boolean map, Metrics metrics) {
+        this.root = root;
+        this.backup = backup;
+        this.indexCache = indexCache;
+        this.map = map;
+        this.metrics = metrics;
+    }
+
+    private DirectoryIndex index() throws IOException {
+        indexLock.lock();
+        try {
+            if (index == null) {
+                index = DirectoryIndex.load(root, indexCache);
+            }
+            return index;
+        } finally {
+            indexLock.unlock();
+        }
+    }
+
+    @Override
+    public List<String> listVersions(@Nullable String filter) throws IOException {
+        return index().versions().stream()
+                .filter(s -> filter == null || s.startsWith(filter))
+                .toList();
+    }
+
+    @Override
+    public boolean exists(String version) throws IOException {
+        return index().path(version) != null;
+    }
+
+    @Override
+    public long size(String version) throws IOException {
+        final var relative = index().path(version);
+        return relative == null ? -1 : Files.size(root.resolve(relative));
+    }
+
+    @Override
+    public CompletableFuture<Installer> provideInstaller(String version, Executor executor, MemoryBudget budget, PayloadStore store) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                final var relative = index().path(version);
+                if (relative == null) {
+                    store.close();
+                    return null;
+                }
+
+                final var path = root.resolve(relative);
+                final var size = Files.size(path);
+                final var reservation = budget.acquire(size);
+                try (var span = metrics.span(Metrics.LOAD, version)) {
+                    final var jar = map ? JarContents.mapJar(path.toFile(), store) : JarContents.loadJar(path.toFile(), store);
+                    jar.hold(reservation);
+                    span.bytes(size);
+                    return new Installer(relative, version, jar);
+                } catch (Exception exception) {
+                    reservation.close();
+                    throw exception;
+                }
+            } catch (Exception exception) {
+                store.close();
+                throw new RuntimeException(exception);
+            }
+        }, executor);
+    }
+
+    @Override
+    public String save(Installer installer, boolean hash) {
+        if (installer == null) return null;
+
+        try {
+            final var path = root.resolve(installer.path()).toAbsolutePath();
+            final var backupDir = backup == null ? null : backup.resolve(root.relativize(root.resolve(installer.path()).getParent()).toString());
+            if (backupDir != null) {
+                Files.createDirectories(backupDir);
+                if (!Files.exists(backup.resolve(installer.path()))) {
+                    try (var span = metrics.span(Metrics.BACKUP, installer.version())) {
+                        Files.copy(path, backup.resolve(installer.path()));
+                        span.bytes(Files.size(path));
+                    }
+                }
+            }
+
+            Files.createDirectories(path.getParent());
+            // The installer may still be mapped from the file, which must not be overwritten in place while it is read
+            final var temp = path.resolveSibling(path.getFileName() + ".tmp");
+            final MultiDigest digest;
+            final long size;
+            try (var span = metrics.span(Metrics.SAVE, installer.version())) {
+                try (var os = new BufferedOutputStream(Files.newOutputStream(temp))) {
+                    digest = new MultiDigest(os);
+                    installer.jar().writeTo(digest);
+                }
+                size = Files.size(temp);
+                span.bytes(size);
+            }
+            metrics.record(Metrics.HASH, digest.nanos(), size);
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            Rewriter.LOG.info("Saved to {}", path.toFile());
+
+            final List<String> toRemove = new ArrayList<>();
+            final String name = path.getFileName().toString();
+            final Path parent = path.getParent();
+            for (final var suffix : List.of(
+                    "md5", "sha1", "sha256", "sha512"
+            )) {
+                toRemove.add(name + "." + suffix);
+                toRemove.add(name + ".asc." + suffix);
+            }
+            toRemove.add(name + ".asc");
+
+            for (var trm : toRemove) {
+                final var p = parent.resolve(trm);
+                if (Files.exists(p)) {
+                    if (backup != null && !Files.exists(backupDir.resolve(trm))) {
+                        Files.copy(p, backupDir.resolve(trm));
+                    }
+                    Files.delete(p);
+                }
+            }
+
+            final var checksums = digest.checksums();
+            for (var entry : checksums.entrySet()) {
+                Files.writeString(parent.resolve(name + "." + entry.getKey()), entry.getValue());
+            }
+            // Replacing the checksums changed the directory, which must not invalidate the cached index
+            index().touch(parent);
+            // The checksum files need every hash anyway, so the SHA-256 is returned even when not needed
+            return checksums.get("sha256");
+        } catch (Exception exception) {
+            throw new RuntimeException(exception);
+        }
+    }
+
+    @Override
+    public void close() {
+        if (index == null) return;
+        try {
+            index.save();
+        } catch (IOException exception) {
+            Rewriter.LOG.warn("Failed to save the index of {}: ", root, exception);
+        }
+    }
+}
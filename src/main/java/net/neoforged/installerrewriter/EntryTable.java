@@ -0,0 +1,110 @@
+package net.neoforged.installerrewriter;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * The entries of a jar, always sorted by name. Files and directories share the table: directories are the entries whose
+ * name ends with a {@code /}, and only hold a timestamp. As all entries of a folder are adjacent in the table, operations
+ * on whole folders are range operations.
+ */
+final class EntryTable implements Iterable<EntryTable.Entry> {
+    static final int DIRECTORY = 1;
+    // The entry was loaded from the original archive
+    static final int ORIGINAL = 1 << 1;
+    // The entry was not in the original archive
+    static final int ADDED = 1 << 2;
+    // The contents or the time of an entry of the original archive were replaced
+    static final int MODIFIED = 1 << 3;
+
+    static final class Entry {
+        final String name;
+        long time;
+        // The uncompressed contents, null for directories, for entries which only had their time set, and for files which
+        // were not inflated yet
+        @Nullable ByteBuffer data;
+        // The compressed form of the contents, as long as they were not modified since loading. Files always have their
+        // contents in at least one of the two forms
+        @Nullable RawEntry raw;
+        int flags;
+
+        private Entry(String name, long time) {
+            this.name = name;
+            this.time = time;
+            if (name.endsWith("/"))
+                flags |= DIRECTORY;
+        }
+
+        boolean isFile() {
+            return data != null || raw != null;
+        }
+
+        boolean isDirectory() {
+            return (flags & DIRECTORY) != 0;
+        }
+
+        boolean is(int flag) {
+            return (flags & flag) != 0;
+        }
+
+        /**
+         * {@return whether the entry differs from the original archive}
+         */
+        boolean isTouched() {
+            return (flags & (ADDED | MODIFIED)) != 0;
+        }
+    }
+
+    private final TreeMap<String, Entry> entries = new TreeMap<>();
+
+    @Nullable
+    Entry get(String name) {
+        return entries.get(name);
+    }
+
+    /**
+     * {@return the entry with the given name, adding it with the given time if it doesn't exist yet}
+     */
+    Entry getOrCreate(String name, long time) {
+        return entries.computeIfAbsent(name, n -> new Entry(n, time));
+    }
+
+    @Nullable
+    Entry remove(String name) {
+        return entries.remove(name);
+    }
+
+    /**
+     * {@return a live view of the entries whose name starts with the given prefix, in order}
+     */
+    Collection<Entry> under(String prefix) {
+        return range(prefix).values();
+    }
+
+    private NavigableMap<String, Entry> range(String prefix) {
+        if (prefix.isEmpty())
+            return entries;
+        // The names starting with the prefix are exactly those between the prefix and the prefix with its last character
+        // incremented. Characters which can't be incremented are dropped first, as no name sorts between them and the end
+        int end = prefix.length();
+        while (end > 0 && prefix.charAt(end - 1) == Character.MAX_VALUE)
+            end--;
+        if (end == 0)
+            return entries.tailMap(prefix, true);
+        return entries.subMap(prefix, true, prefix.substring(0, end - 1) + (char) (prefix.charAt(end - 1) + 1), false);
+    }
+
+    void clear() {
+        entries.clear();
+    }
+
+    @Override
+    public Iterator<Entry> iterator() {
+        return entries.values().iterator();
+    }
+}
@@ -1,7 +1,51 @@
 package net.neoforged.installerrewriter;
 
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.util.List;
+import java.util.jar.Manifest;
+
 public interface InstallerRewrite extends AutoCloseable {
-    void rewrite(Installer installer) throws Exception;
+    /**
+     * Rewrite the whole installer. The rewrites of a chain are run one after the other, before the entries are {@link #visit visited}.
+     */
+    default void rewrite(Installer installer) throws Exception {
+    }
+
+    /**
+     * {@return the names or name prefixes of the entries this rewrite {@link #visit visits}}
+     * The visits of all rewrites share a single pass over the entries of the installer, which only goes over the claimed entries.
+     */
+    default List<String> claims() {
+        return List.of();
+    }
+
+    /**
+     * Visit a file of the installer matching one of the {@link #claims() claims} of this rewrite. If multiple rewrites
+     * claim the same file, they visit it in the order of the chain, each being given the result of the previous one.
+     *
+     * @param data the contents of the file, which must not be modified
+     * @return the new contents of the file, {@code data} itself to keep it, or {@code null} to delete it
+     */
+    default byte @Nullable [] visit(Installer installer, String name, byte[] data) throws Exception {
+        return data;
+    }
+
+    /**
+     * {@return whether an installer with the given manifest would not be changed by this rewrite}
+     * This allows skipping installers without downloading them. Rewrites that cannot tell from the manifest alone must return {@code false}.
+     */
+    default boolean isUpToDate(Manifest manifest) {
+        return false;
+    }
 
     String name();
+
+    /**
+     * {@return a string identifying this rewrite and its configuration}
+     * Installers processed by a rewrite chain with the same fingerprints are not processed again when resuming a run.
+     */
+    default String fingerprint() {
+        return name();
+    }
 }
@@ -6,28 +6,35 @@ import com.google.common.hash.Hashing;
 import net.covers1624.quack.util.HashUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.checkerframework.checker.nullness.qual.Nullable;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
 import java.nio.charset.StandardCharsets;
-import java.util.ArrayList;
 import java.util.Base64;
-import java.util.Collections;
-import java.util.HashMap;
+import java.util.Collection;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
 import java.util.jar.Attributes;
-import java.util.jar.JarOutputStream;
 import java.util.jar.Manifest;
 import java.util.stream.Collectors;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipFile;
+import java.util.zip.ZipException;
 
 class JarContents {
 
@@ -39,49 +46,182 @@ class JarContents {
 
     private static final HashFunction SHA256 = Hashing.sha256();
 
+    // Below this amount of data to deflate, handing the entries to other threads costs more than it saves
+    private static final long PARALLEL_DEFLATE_THRESHOLD = 256 * 1024;
+
 
     static JarContents loadJar(File path) throws IOException {
-        Map<String, byte[]> data = new HashMap<>();
-        Map<String, Long> timestamps = new HashMap<>();
-        if (!path.exists())
-            return new JarContents(data, timestamps);
+        return loadJar(path, PayloadStore.HEAP);
+    }
 
+    /**
+     * Load the given jar, allocating its contents from the given store. The jar takes ownership of the store, and closes
+     * it once it is {@link #clear() cleared}.
+     */
+    static JarContents loadJar(File path, PayloadStore store) throws IOException {
+        try {
+            if (!path.exists())
+                return new JarContents(null, new EntryTable(), store);
+
+            try (FileChannel channel = FileChannel.open(path.toPath())) {
+                ByteBuffer archive = allocate(store, channel.size());
+                while (archive.hasRemaining()) {
+                    if (channel.read(archive) < 0)
+                        throw new EOFException("Unexpected end of " + path);
+                }
+                return loadJar(archive.flip(), store);
+            }
+        } catch (Throwable t) {
+            store.close();
+            throw t;
+        }
+    }
 
-        try (ZipFile zf = new ZipFile(path)) {
-            var enu = zf.entries();
-            while (enu.hasMoreElements()) {
-                ZipEntry ent = enu.nextElement();
-                String name = ent.getName();
-                timestamps.put(name, ent.getTime());
+    /**
+     * Load the given jar by mapping it into memory instead of reading it, so that only the pages of the central directory
+     * and of the entries which are actually read are loaded. The jar takes ownership of the store, which only holds the
+     * inflated entries.
+     * <p>
+     * The file must not be truncated or overwritten in place while the jar is in use, it may only be replaced by moving
+     * another file over it.
+     */
+    static JarContents mapJar(File path, PayloadStore store) throws IOException {
+        try {
+            if (!path.exists())
+                return new JarContents(null, new EntryTable(), store);
+
+            // The mapping stays valid after the channel is closed, until it is garbage collected
+            try (FileChannel channel = FileChannel.open(path.toPath())) {
+                if (channel.size() > Integer.MAX_VALUE)
+                    throw new ZipException("Too large: " + channel.size());
+                return loadJar(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), store);
+            }
+        } catch (Throwable t) {
+            store.close();
+            throw t;
+        }
+    }
 
-                if (ent.isDirectory())
-                    continue;
+    static JarContents loadJar(InputStream stream) throws IOException {
+        return loadJar(stream, -1, PayloadStore.HEAP);
+    }
 
-                try (InputStream is = zf.getInputStream(ent)) {
-                    data.put(name, is.readAllBytes());
+    /**
+     * Load the jar read from the given stream, allocating its contents from the given store. The jar takes ownership of
+     * the store, and closes it once it is {@link #clear() cleared}.
+     *
+     * @param size the size of the archive, or {@code -1} if unknown
+     */
+    static JarContents loadJar(InputStream stream, long size, PayloadStore store) throws IOException {
+        // The central directory lives at the end of the archive, so the stream has to be read fully before it can be indexed
+        try {
+            ByteBuffer archive;
+            if (store == PayloadStore.HEAP || size < 0) {
+                byte[] bytes = stream.readAllBytes();
+                archive = store == PayloadStore.HEAP ? ByteBuffer.wrap(bytes) : allocate(store, bytes.length).put(bytes).flip();
+            } else {
+                // Read straight into the store, to not copy the whole archive through the heap
+                archive = allocate(store, size);
+                ReadableByteChannel channel = Channels.newChannel(stream);
+                while (archive.hasRemaining()) {
+                    if (channel.read(archive) < 0)
+                        throw new EOFException("Expected " + size + " bytes but got " + archive.position());
                 }
+                if (stream.read() != -1)
+                    throw new IOException("Expected " + size + " bytes but got more");
+                archive.flip();
             }
+            return loadJar(archive, store);
+        } catch (Throwable t) {
+            store.close();
+            throw t;
         }
+    }
+
+    private static JarContents loadJar(ByteBuffer archive, PayloadStore store) throws IOException {
+        EntryTable entries = new EntryTable();
 
+        for (ZipReader.Entry ent : ZipReader.read(archive)) {
+            EntryTable.Entry entry = entries.getOrCreate(ent.name(), ent.time());
+            entry.time = ent.time();
 
-        return new JarContents(data, timestamps);
+            if (ent.isDirectory())
+                continue;
 
+            // Only inflated once needed, most entries are written back in their compressed form
+            entry.data = null;
+            entry.raw = ent.raw();
+            entry.flags |= EntryTable.ORIGINAL;
+        }
+
+        return new JarContents(archive, entries, store);
+    }
+
+    private static ByteBuffer allocate(PayloadStore store, long size) throws IOException {
+        if (size > Integer.MAX_VALUE - 8)
+            throw new ZipException("Too large: " + size);
+        return store.allocate((int) size);
+    }
+
+    /**
+     * {@return the contents of the given buffer as an array, which is the backing array itself if it matches the buffer}
+     */
+    private static byte[] bytes(ByteBuffer buffer) {
+        if (buffer.hasArray() && buffer.arrayOffset() == 0 && buffer.position() == 0 && buffer.remaining() == buffer.array().length)
+            return buffer.array();
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        return bytes;
+    }
+
+    /**
+     * {@return the given buffer, copied to the heap if it is not on the heap already}
+     */
+    private static ByteBuffer onHeap(ByteBuffer buffer) {
+        return buffer.isDirect() ? ByteBuffer.wrap(bytes(buffer)) : buffer;
     }
 
 
-    private final Map<String, byte[]> data;
-    private final Map<String, Long> timestamps;
+    private @Nullable ByteBuffer source;
+    private final EntryTable entries;
+    // The files of the original archive which were deleted
+    private final Set<String> deleted = new TreeSet<>();
     private boolean changed = false;
     private Manifest manifest;
+    private MemoryBudget.@Nullable Reservation reservation;
+    private PayloadStore store;
 
-    private JarContents(Map<String, byte[]> data, Map<String, Long> timestamps) {
-        this.data = data;
-        this.timestamps = timestamps;
+    private JarContents(@Nullable ByteBuffer source, EntryTable entries, PayloadStore store) {
+        this.source = source;
+        this.entries = entries;
+        this.store = store;
     }
 
     public void clear() {
-        data.clear();
-        timestamps.clear();
+        source = null;
+        entries.clear();
+        deleted.clear();
+        store.close();
+        store = PayloadStore.HEAP;
+        if (reservation != null) {
+            reservation.close();
+            reservation = null;
+        }
+    }
+
+    /**
+     * Hold the given memory reservation until this jar is {@link #clear() cleared}.
+     */
+    void hold(MemoryBudget.Reservation reservation) {
+        this.reservation = reservation;
+    }
+
+    /**
+     * {@return the archive this jar was loaded from, or {@code null} if it was not loaded from an archive}
+     */
+    @Nullable
+    ByteBuffer source() {
+        return source == null ? null : source.asReadOnlyBuffer();
     }
 
     public Manifest getManifest() throws IOException {
@@ -104,58 +244,170 @@ class JarContents {
     }
 
 
+    /**
+     * The files which differ from the original archive, in order.
+     */
+    record Changes(List<String> added, List<String> modified, List<String> deleted) {
+        boolean isEmpty() {
+            return added.isEmpty() && modified.isEmpty() && deleted.isEmpty();
+        }
+
+        @Override
+        public String toString() {
+            return added.size() + " added, " + modified.size() + " modified, " + deleted.size() + " deleted";
+        }
+    }
+
+
+    /**
+     * {@return the files which were added, modified or deleted since this jar was loaded}
+     */
+    Changes changes() {
+        List<String> added = new ArrayList<>();
+        List<String> modified = new ArrayList<>();
+        for (EntryTable.Entry entry : this.entries) {
+            if (!entry.isFile())
+                continue;
+            if (entry.is(EntryTable.ADDED))
+                added.add(entry.name);
+            else if (entry.is(EntryTable.MODIFIED))
+                modified.add(entry.name);
+        }
+        return new Changes(added, modified, List.copyOf(this.deleted));
+    }
+
+
     boolean contains(String name) {
-        return this.data.containsKey(sanitize(name));
+        // Only look the entry up, as loading it would inflate it
+        EntryTable.Entry entry = this.entries.get(sanitize(name));
+        return entry != null && entry.isFile();
     }
 
 
     Set<String> getFiles() {
 
-        return new HashSet<>(this.data.keySet());
+        Set<String> files = new LinkedHashSet<>();
+
+        for (EntryTable.Entry entry : this.entries)
+
+            if (entry.isFile())
+
+                files.add(entry.name);
+
+        return files;
 
     }
 
 
+    private @Nullable ByteBuffer getData(String name) {
+        EntryTable.Entry entry = this.entries.get(sanitize(name));
+        return entry == null || !entry.isFile() ? null : load(entry);
+    }
+
+
+    /**
+     * {@return the uncompressed contents of the given file, inflating it if that didn't happen yet}
+     */
+    private ByteBuffer load(EntryTable.Entry entry) {
+        if (entry.data == null) {
+            try {
+                ByteBuffer data = allocate(this.store, entry.raw.size());
+                entry.raw.inflate(data);
+                entry.data = data.flip();
+            } catch (IOException exception) {
+                throw new UncheckedIOException("Failed to inflate " + entry.name, exception);
+            }
+        }
+        return entry.data;
+    }
+
     InputStream getInput(String name) {
-        byte[] d = this.data.get(sanitize(name));
-        return d == null ? null : new ByteArrayInputStream(d);
+        ByteBuffer d = getData(name);
+        return d == null ? null : new ByteArrayInputStream(bytes(d));
     }
 
     String getText(String name) {
-        byte[] d = this.data.get(sanitize(name));
-        return d == null ? null : new String(d, StandardCharsets.UTF_8);
+        ByteBuffer d = getData(name);
+        return d == null ? null : new String(bytes(d), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * {@return a copy of the contents of the given file, so that changing it leaves the jar untouched}
+     */
+    byte[] getBytes(String name) {
+        ByteBuffer d = getData(name);
+        if (d == null) return null;
+        byte[] bytes = new byte[d.remaining()];
+        d.duplicate().get(bytes);
+        return bytes;
+    }
+
+
+    /**
+     * {@return the names of the files starting with any of the given prefixes, in order and without duplicates}
+     */
+    List<String> getFiles(Collection<String> prefixes) {
+        List<String> files = new ArrayList<>();
+        String covered = null;
+        for (String prefix : new TreeSet<>(prefixes)) {
+            // Once sorted, the prefixes starting with a previous prefix only match files which were already found
+            if (covered != null && prefix.startsWith(covered))
+                continue;
+            covered = prefix;
+            for (EntryTable.Entry entry : this.entries.under(prefix)) {
+                if (entry.isFile())
+                    files.add(entry.name);
+            }
+        }
+        return files;
     }
 
     long getTime(String name) {
-        Long time = this.timestamps.get(sanitize(name));
-        return time == null ? DEFAULT_TIME : time;
+        EntryTable.Entry entry = this.entries.get(sanitize(name));
+        return entry == null ? DEFAULT_TIME : entry.time;
     }
 
 
     void setTime(String name, long time) {
         long old = getTime(name);
         if (old != time) {
-            this.timestamps.put(sanitize(name), time);
+            EntryTable.Entry entry = this.entries.getOrCreate(sanitize(name), time);
+            entry.time = time;
+            if (entry.isFile() && entry.is(EntryTable.ORIGINAL))
+                entry.flags |= EntryTable.MODIFIED;
             if (!name.endsWith("/"))
                 changed = true;
         }
     }
 
 
-    byte[] delete(String name) {
-        name = sanitize(name);
-        if (contains(name))
-            changed = true;
-        this.timestamps.remove(name);
-        return this.data.remove(name);
+    /**
+     * Delete the given entry.
+     *
+     * @return whether a file was deleted
+     */
+    boolean delete(String name) {
+        EntryTable.Entry entry = this.entries.remove(sanitize(name));
+        return entry != null && deleted(entry);
     }
 
     void deleteFolder(String name) {
-        final var actualName = sanitize(name) + "/";
-        data.keySet().stream()
-                .filter(d -> d.startsWith(actualName))
-                .toList()
-                .forEach(this::delete);
+        // Only files are removed, the timestamps of the directories are kept in case files are added back
+        this.entries.under(sanitize(name) + "/").removeIf(this::deleted);
+    }
+
+    /**
+     * Record the deletion of the given entry.
+     *
+     * @return whether the entry is a file
+     */
+    private boolean deleted(EntryTable.Entry entry) {
+        if (!entry.isFile())
+            return false;
+        changed = true;
+        if (entry.is(EntryTable.ORIGINAL))
+            this.deleted.add(entry.name);
+        return true;
     }
 
     void write(String name, byte[] data) {
@@ -164,115 +416,197 @@ class JarContents {
 
 
     void write(String name, byte[] data, long timestamp) {
-        name = sanitize(name);
-        this.data.put(name, data);
-        this.timestamps.put(name, timestamp);
-        changed = true;
+        write(name, ByteBuffer.wrap(data), timestamp, null);
     }
 
 
-    void save(File target) throws IOException {
-        if (changed())
-            cleanSignatures();
+    /**
+     * Write the given file, with {@code raw} being its compressed form if it is already known.
+     */
+    private void write(String name, @Nullable ByteBuffer data, long timestamp, @Nullable RawEntry raw) {
+        EntryTable.Entry entry = this.entries.getOrCreate(sanitize(name), timestamp);
+        if (entry.isFile()) {
+            if (entry.is(EntryTable.ORIGINAL))
+                entry.flags |= EntryTable.MODIFIED;
+        } else if (this.deleted.remove(entry.name)) {
+            // Deleted and added back
+            entry.flags |= EntryTable.ORIGINAL | EntryTable.MODIFIED;
+        } else {
+            entry.flags |= EntryTable.ADDED;
+        }
+        entry.data = data;
+        entry.time = timestamp;
+        entry.raw = raw;
+        changed = true;
+    }
 
 
+    void save(File target) throws IOException {
         if (!target.getParentFile().exists())
 
             target.getParentFile().mkdirs();
 
 
-        try (FileOutputStream fos = new FileOutputStream(target);
+        try (FileOutputStream fos = new FileOutputStream(target)) {
 
-             JarOutputStream out = new JarOutputStream(fos)
+            writeTo(fos);
 
-        ) {
+        }
 
-            List<String> files = new ArrayList<>(this.data.keySet());
+    }
 
-            Collections.sort(files, (l, r) -> {
 
-                if (l.equals(MANIFEST))
+    /**
+     * Write this jar to the given stream. The stream is not closed.
+     */
+    void writeTo(OutputStream stream) throws IOException {
+        if (changed())
+            cleanSignatures();
+
+
+        // The table is already sorted, only the manifest has to be moved to the front
+        List<EntryTable.Entry> files = new ArrayList<>();
+
+        EntryTable.Entry manifest = this.entries.get(MANIFEST);
+
+        if (manifest != null && manifest.isFile())
+
+            files.add(manifest);
+
+        for (EntryTable.Entry entry : this.entries) {
 
-                    return r.equals(MANIFEST) ? 0 : -1;
+            if (entry.isFile() && entry != manifest)
 
-                if (r.equals(MANIFEST))
+                files.add(entry);
+
+        }
 
-                    return l.equals(MANIFEST) ? 0 : 1;
 
-                return l.compareTo(r);
+        RawEntry[] compressed = compress(files);
 
-            });
 
+        try (ZipWriter out = new ZipWriter(stream)) {
 
             Set<String> dirs = new HashSet<String>();
 
-            for (String file : files) {
+            for (int i = 0; i < files.size(); i++) {
 
-                makeDirectory(out, dirs, file);
+                EntryTable.Entry entry = files.get(i);
 
-                ZipEntry entry = new ZipEntry(file);
+                makeDirectories(out, dirs, entry.name);
 
-                entry.setTime(getTime(file));
+                if (entry.raw != null)
 
-                out.putNextEntry(entry);
+                    out.putRaw(entry.name, entry.time, entry.raw);
 
-                out.write(this.data.get(file));
+                else if (compressed != null)
 
-            }
+                    out.putRaw(entry.name, entry.time, compressed[i]);
 
+                else
 
-            out.flush();
+                    out.put(entry.name, entry.time, bytes(entry.data));
+
+            }
 
         }
 
     }
 
 
-    private void makeDirectory(JarOutputStream out, Set<String> added, String path) throws IOException {
+    /**
+     * Deflate the files without a compressed form in parallel, if there are enough of them to be worth it.
+     *
+     * @return the compressed forms, at the same indices as the files, or {@code null} if the files should be deflated while writing
+     */
+    private static RawEntry @Nullable [] compress(List<EntryTable.Entry> files) {
 
-        if (added.contains(path))
+        List<byte[]> pending = new ArrayList<>();
 
-            return;
+        List<Integer> indices = new ArrayList<>();
+
+        long size = 0;
 
-        int idx = path.lastIndexOf('/');
+        for (int i = 0; i < files.size(); i++) {
 
-        if (idx == path.length() - 1) {
+            EntryTable.Entry entry = files.get(i);
 
-            int sidx = path.lastIndexOf('/', idx - 1);
+            if (entry.raw == null) {
 
-            if (sidx != -1)
+                pending.add(bytes(entry.data));
 
-                makeDirectory(out, added, path.substring(0, sidx + 1));
+                indices.add(i);
 
+                size += entry.data.remaining();
+
+            }
+
+        }
+
+
+        if (pending.size() < 2 || size < PARALLEL_DEFLATE_THRESHOLD || ForkJoinPool.getCommonPoolParallelism() < 2)
+
+            return null;
+
+
+        RawEntry[] deflated = ZipWriter.deflateAll(pending);
+
+        RawEntry[] compressed = new RawEntry[files.size()];
+
+        for (int i = 0; i < deflated.length; i++)
+
+            compressed[indices.get(i)] = deflated[i];
+
+        return compressed;
+
+    }
 
-            ZipEntry entry = new ZipEntry(path);
 
-            entry.setTime(getTime(path));
+    private void makeDirectories(ZipWriter out, Set<String> added, String path) throws IOException {
 
-            out.putNextEntry(entry);
+        // Write the parents of the path from the outermost one, skipping the ones already written
+        for (int idx = path.indexOf('/'); idx != -1; idx = path.indexOf('/', idx + 1)) {
 
-            added.add(path);
+            String dir = path.substring(0, idx + 1);
 
-        } else if (idx != -1) {
+            if (added.add(dir))
 
-            makeDirectory(out, added, path.substring(0, idx + 1));
+                out.putDirectory(dir, getTime(dir));
 
         }
 
     }
 
 
-    void merge(JarContents other, boolean overwrite) {
-        for (String file : other.data.keySet()) {
-            if (overwrite || !this.data.containsKey(file))
-                write(file, other.data.get(file), other.getTime(file));
+    /**
+     * Compress the files of this jar which are not in their compressed form yet. Merging this jar into others then
+     * copies the compressed form of its files, instead of deflating them again for every target.
+     */
+    void precompress() {
+        for (EntryTable.Entry entry : this.entries) {
+            if (entry.isFile() && entry.raw == null)
+                entry.raw = ZipWriter.deflate(bytes(entry.data));
         }
+    }
 
-        for (String file : other.timestamps.keySet()) {
-            if (!file.endsWith("/"))
-                continue;
-            if (overwrite || !this.timestamps.containsKey(file))
-                this.setTime(file, other.timestamps.get(file));
+
+    void merge(JarContents other, boolean overwrite) {
+        for (EntryTable.Entry entry : other.entries) {
+            if (entry.isFile()) {
+                // The contents are immutable and only ever read through duplicates, so they can be shared between jars,
+                // unless they are freed together with the other jar. The other jar's files are not inflated, as it may
+                // be merged into multiple jars at once
+                if (overwrite || !contains(entry.name)) {
+                    boolean owned = other.store != PayloadStore.HEAP;
+                    RawEntry raw = entry.raw;
+                    if (owned && raw != null && raw.compressed().isDirect())
+                        raw = new RawEntry(raw.method(), raw.crc(), raw.size(), onHeap(raw.compressed()));
+                    write(entry.name, entry.data == null || !owned ? entry.data : onHeap(entry.data), entry.time, raw);
+                }
+            } else if (entry.isDirectory()) {
+                if (overwrite || this.entries.get(entry.name) == null)
+                    setTime(entry.name, entry.time);
+            }
         }
     }
 
@@ -336,7 +670,13 @@ class JarContents {
 
                 if (key.endsWith("-Digest")) {
 
-                    if (!contains(name)) // Hashes can exist in the manifest even if the files don't exist.
+                    EntryTable.Entry file = this.entries.get(name);
+
+                    if (file == null || !file.isFile()) // Hashes can exist in the manifest even if the files don't exist.
+
+                        continue;
+
+                    if (!file.isTouched()) // The files of the original archive still match their digests
 
                         continue;
 
@@ -426,13 +766,7 @@ class JarContents {
             this.write(MANIFEST, os.toByteArray());
 
 
-            List<String> files = this.data.keySet().stream()
-
-                    .filter(JarContents::isSignature)
-
-                    .collect(Collectors.toList());
-
-            files.forEach(this::delete);
+            this.entries.under("META-INF/").removeIf(e -> isSignature(e.name) && deleted(e));
 
         }
 
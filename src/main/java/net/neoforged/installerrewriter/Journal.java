@@ -0,0 +1,136 @@
+package net.neoforged.installerrewriter;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * An append-only log of the progress of each version, used to resume interrupted runs. Each line records the status of
+ * a version, the fingerprint of the rewrite chain that processed it and the SHA-256 of its input and output installer,
+ * separated by tabs. The last line of a version wins.
+ * <p>
+ * The journal also serves as the report of a run: the journals of the {@link Shard shards} of a run cover distinct
+ * versions, and are merged by concatenating them.
+ */
+public final class Journal implements Closeable {
+    private static final String NONE = "-";
+
+    public enum Status {
+        /**
+         * The version was downloaded and is being processed. Its backup may already exist.
+         */
+        STARTED,
+        /**
+         * The rewrites didn't change the version.
+         */
+        UNCHANGED,
+        /**
+         * The rewritten version was uploaded.
+         */
+        UPLOADED,
+        /**
+         * The version failed to be processed, and is processed again by the next run.
+         */
+        FAILED
+    }
+
+    public record Entry(String version, Status status, String fingerprint, @Nullable String input, @Nullable String output) {
+    }
+
+    private final Map<String, Entry> entries;
+    private final BufferedWriter writer;
+    // Not using synchronized, as writing inside a monitor would pin the virtual thread
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private Journal(Map<String, Entry> entries, BufferedWriter writer) {
+        this.entries = entries;
+        this.writer = writer;
+    }
+
+    public static Journal open(Path path) throws IOException {
+        final Map<String, Entry> entries = new HashMap<>();
+        boolean partial = false;
+        if (Files.exists(path)) {
+            for (final String line : Files.readAllLines(path, StandardCharsets.UTF_8)) {
+                final String[] split = line.split("\t");
+                // Skip lines which were cut off by a crash
+                if (split.length != 5) continue;
+                final Status status;
+                try {
+                    status = Status.valueOf(split[1]);
+                } catch (IllegalArgumentException ignored) {
+                    continue;
+                }
+                entries.put(split[0], new Entry(split[0], status, split[2], orNull(split[3]), orNull(split[4])));
+            }
+
+            try (var channel = FileChannel.open(path)) {
+                if (channel.size() > 0) {
+                    final var last = ByteBuffer.allocate(1);
+                    channel.read(last, channel.size() - 1);
+                    partial = last.get(0) != '\n';
+                }
+            }
+        } else if (path.toAbsolutePath().getParent() != null) {
+            Files.createDirectories(path.toAbsolutePath().getParent());
+        }
+        final var writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        // A line cut off by a crash must not be merged with the first record of this run
+        if (partial) {
+            writer.write('\n');
+            writer.flush();
+        }
+        return new Journal(entries, writer);
+    }
+
+    @Nullable
+    public Entry get(String version) {
+        lock.lock();
+        try {
+            return entries.get(version);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * {@return whether the version was fully processed by a rewrite chain with the given fingerprint}
+     */
+    public boolean isDone(String version, String fingerprint) {
+        final var entry = get(version);
+        return entry != null && entry.fingerprint().equals(fingerprint) && (entry.status() == Status.UNCHANGED || entry.status() == Status.UPLOADED);
+    }
+
+    public void record(String version, Status status, String fingerprint, @Nullable String input, @Nullable String output) throws IOException {
+        final var entry = new Entry(version, status, fingerprint, input, output);
+        lock.lock();
+        try {
+            writer.write(String.join("\t", version, status.name(), fingerprint, input == null ? NONE : input, output == null ? NONE : output));
+            writer.write('\n');
+            writer.flush();
+            entries.put(version, entry);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        writer.close();
+    }
+
+    private static @Nullable String orNull(String value) {
+        return NONE.equals(value) ? null : value;
+    }
+}
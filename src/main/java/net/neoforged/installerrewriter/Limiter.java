@@ -0,0 +1,57 @@
+package net.neoforged.installerrewriter;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Bounds how many actions may run at once. Unlike bounding an executor, the permit is held by the calling
+ * thread for the whole duration of the action, so it is safe to use from virtual threads that block on I/O.
+ */
+public final class Limiter {
+    public static final Limiter UNLIMITED = new Limiter(null);
+
+    private final @Nullable Semaphore semaphore;
+
+    private Limiter(@Nullable Semaphore semaphore) {
+        this.semaphore = semaphore;
+    }
+
+    /**
+     * {@return a limiter allowing {@code limit} concurrent actions, or {@link #UNLIMITED} if the limit is {@code null} or not positive}
+     */
+    public static Limiter of(@Nullable Integer limit) {
+        return limit == null || limit <= 0 ? UNLIMITED : new Limiter(new Semaphore(limit, true));
+    }
+
+    public <T> T call(Callable<T> action) throws Exception {
+        try (var ignored = acquire()) {
+            return action.call();
+        }
+    }
+
+    /**
+     * Acquire a permit that is held until it is closed, for actions that span multiple threads.
+     */
+    public Permit acquire() throws InterruptedException {
+        if (semaphore != null)
+            semaphore.acquire();
+        return new Permit();
+    }
+
+    public final class Permit implements AutoCloseable {
+        private boolean released;
+
+        private Permit() {
+        }
+
+        @Override
+        public synchronized void close() {
+            if (released) return;
+            released = true;
+            if (semaphore != null)
+                semaphore.release();
+        }
+    }
+}
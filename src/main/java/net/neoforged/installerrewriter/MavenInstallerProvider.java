@@ -0,0 +1,410 @@
+package net.neoforged.installerrewriter;
+
+import com.google.common.hash.Hashing;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.Authenticator;
+import java.net.MalformedURLException;
+import java.net.PasswordAuthentication;
+import java.net.URI;
+import java.net.URL;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.jar.Manifest;
+
+/**
+ * Provides installers from a maven repository. All requests go through a single {@link HttpClient}, so that
+ * connections (and TLS sessions) are pooled and, where the server supports it, multiplexed over HTTP/2.
+ */
+class MavenInstallerProvider implements InstallerProvider {
+    private final URI url;
+    private final String baseName;
+    private final String artifactFolder;
+    private final @Nullable Path backup;
+    private final Duration timeout;
+    private final TransferLimit transfers;
+    private final Metrics metrics;
+    private final ExecutorService httpExecutor;
+    private final HttpClient client;
+
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger peakInFlight = new AtomicInteger();
+
+    MavenInstallerProvider(URI url, String user, String token, String artifactPath, @Nullable Path backup, Duration timeout, TransferLimit transfers, Metrics metrics) {
+        var splitPath = artifactPath.split(":");
+        this.url = url;
+        this.baseName = splitPath[1];
+        this.artifactFolder = splitPath[0].replace('.', '/') + "/" + baseName;
+        this.backup = backup;
+        this.timeout = timeout;
+        this.transfers = transfers;
+        this.metrics = metrics;
+        this.httpExecutor = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("maven-http-", 0).factory());
+        this.client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .connectTimeout(timeout)
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .executor(httpExecutor)
+                .authenticator(new Authenticator() {
+                    @Override
+                    protected PasswordAuthentication getPasswordAuthentication() {
+                        return new PasswordAuthentication(user, token.toCharArray());
+                    }
+                }).build();
+    }
+
+    private URI installerUri(String version) {
+        return url.resolve(artifactFolder + "/" + version + "/" + baseName + "-" + version + "-installer.jar");
+    }
+
+    private HttpRequest.Builder request(URI uri) {
+        return HttpRequest.newBuilder(uri).timeout(timeout);
+    }
+
+    private <T> CompletableFuture<HttpResponse<T>> send(HttpRequest request, HttpResponse.BodyHandler<T> handler) {
+        requests.increment();
+        peakInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+        return client.sendAsync(request, handler).whenComplete((res, ex) -> {
+            inFlight.decrementAndGet();
+            if (ex != null) failures.increment();
+        });
+    }
+
+    private <T> HttpResponse<T> sendAndWait(HttpRequest request, HttpResponse.BodyHandler<T> handler) throws IOException {
+        try {
+            return send(request, handler).get();
+        } catch (ExecutionException exception) {
+            if (exception.getCause() instanceof IOException io) throw io;
+            throw new IOException(exception.getCause());
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            throw new IOException(exception);
+        }
+    }
+
+    /**
+     * Wait until the transfer limit allows another transfer of an installer. Only the requests themselves hold a permit, so
+     * that the limit measures the repository rather than the work around the requests.
+     */
+    private TransferLimit.Permit permit() throws IOException {
+        try {
+            return transfers.acquire();
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            throw new IOException(exception);
+        }
+    }
+
+    /**
+     * Send a request transferring an installer, reporting the failure to get a response to the limit.
+     */
+    private <T> HttpResponse<T> sendAndWait(TransferLimit.Permit permit, HttpRequest request, HttpResponse.BodyHandler<T> handler) throws IOException {
+        try {
+            return sendAndWait(request, handler);
+        } catch (IOException exception) {
+            permit.failed(true);
+            throw exception;
+        }
+    }
+
+    @Override
+    public TransferLimit transfers() {
+        return transfers;
+    }
+
+    @Override
+    public List<String> listVersions(@Nullable String filter) throws IOException {
+        var res = sendAndWait(request(url.resolve(artifactFolder + "/maven-metadata.xml")).GET().build(), HttpResponse.BodyHandlers.ofInputStream());
+        final List<String> versions;
+        try (var is = res.body()) {
+            if (res.statusCode() != 200)
+                throw new IOException("Failed to fetch maven metadata from " + res.uri() + ": " + res.statusCode());
+            versions = Utils.getLatestFromMavenMetadata(is);
+        }
+        return filter == null ? versions : versions.stream().filter(str -> str.startsWith(filter)).toList();
+    }
+
+    @Override
+    public CompletableFuture<Installer> provideInstaller(String version, Executor executor, MemoryBudget budget, PayloadStore store) {
+        return CompletableFuture.supplyAsync(() -> {
+            @Nullable Installer installer = null;
+            try (var span = metrics.span(Metrics.DOWNLOAD, version)) {
+                installer = download(version, budget, store, span);
+                return installer;
+            } catch (Exception exception) {
+                throw new RuntimeException(exception);
+            } finally {
+                // The store is only owned by the jar of a provided installer
+                if (installer == null)
+                    store.close();
+            }
+        }, executor);
+    }
+
+    private @Nullable Installer download(String version, MemoryBudget budget, PayloadStore store, Metrics.Span span) throws IOException, InterruptedException {
+        // Memory is reserved before sending the request, as waiting for it with the response open could outlast the idle
+        // timeouts of the repository. Uploads free the memory, so no transfer permit is held while waiting
+        final var reservation = budget.acquire(size(version));
+        try (var permit = permit()) {
+            var res = sendAndWait(permit, request(installerUri(version)).GET().build(), HttpResponse.BodyHandlers.ofInputStream());
+            try (var is = res.body()) {
+                if (res.statusCode() == 404) {
+                    reservation.close();
+                    return null;
+                }
+                if (res.statusCode() != 200) {
+                    permit.failed(RetryableException.overloaded(res.statusCode()));
+                    throw downloadFailure(res);
+                }
+
+                var jar = JarContents.loadJar(is, res.headers().firstValueAsLong("Content-Length").orElse(-1), store);
+                jar.hold(reservation);
+                permit.succeeded(jar.source().remaining());
+                span.bytes(jar.source().remaining());
+                return new Installer(artifactFolder + "/" + baseName + "-" + version + "-installer.jar", version, jar);
+            }
+        } catch (Exception exception) {
+            reservation.close();
+            throw exception;
+        }
+    }
+
+    @Override
+    public URL resolveUrl(String version) throws MalformedURLException {
+        return installerUri(version).toURL();
+    }
+
+    @Override
+    public void updateChecksums(URL url) throws Exception {
+        Map<String, String> checksums;
+        // The permit is given back before the checksums are uploaded, as each upload takes its own
+        try (var permit = permit()) {
+            var res = sendAndWait(permit, request(url.toURI()).GET().build(), HttpResponse.BodyHandlers.ofInputStream());
+            try (var is = res.body()) {
+                // A missing installer has no checksums to update
+                if (res.statusCode() == 404)
+                    return;
+                if (res.statusCode() != 200) {
+                    permit.failed(RetryableException.overloaded(res.statusCode()));
+                    throw downloadFailure(res);
+                }
+                checksums = MultiDigest.hash(is);
+            }
+            // Hashing while reading makes the time per byte meaningless, so only the outcome is reported
+            permit.succeeded(0);
+        }
+
+        final List<CompletableFuture<?>> uploads = new ArrayList<>();
+        for (var entry : checksums.entrySet()) {
+            var uri = URI.create(url + "." + entry.getKey());
+            uploads.add(CompletableFuture.runAsync(() -> {
+                try {
+                    write(uri, HttpRequest.BodyPublishers.ofString(entry.getValue()), false);
+                } catch (IOException exception) {
+                    throw new UncheckedIOException(exception);
+                }
+            }, httpExecutor));
+        }
+        try {
+            CompletableFuture.allOf(uploads.toArray(CompletableFuture[]::new)).join();
+        } catch (CompletionException exception) {
+            throw exception.getCause() instanceof Exception ex ? ex : exception;
+        }
+    }
+
+    @Override
+    public @Nullable Manifest inspectManifest(String version) throws IOException {
+        final var uri = installerUri(version);
+        return new RemoteZip(range -> sendAndWait(request(uri).header("Range", range).GET().build(), RemoteZip.Fetcher.handler())).readManifest();
+    }
+
+    @Override
+    public boolean exists(String version) throws IOException {
+        return sendAndWait(request(installerUri(version)).HEAD().build(), HttpResponse.BodyHandlers.discarding()).statusCode() == 200;
+    }
+
+    @Override
+    public long size(String version) throws IOException {
+        final var res = sendAndWait(request(installerUri(version)).HEAD().build(), HttpResponse.BodyHandlers.discarding());
+        return res.statusCode() == 200 ? res.headers().firstValueAsLong("Content-Length").orElse(-1) : -1;
+    }
+
+    /**
+     * Upload the given content. Failures which may go away are thrown as {@link RetryableException}s, so that the
+     * upload is retried later instead of holding the calling worker.
+     */
+    private void write(URI uri, HttpRequest.BodyPublisher content, boolean genChecksum) throws IOException {
+        write(uri, content, genChecksum, true);
+    }
+
+    /**
+     * @param replace whether to delete the existing file and upload again if the repository refuses to overwrite it
+     */
+    private void write(URI uri, HttpRequest.BodyPublisher content, boolean genChecksum, boolean replace) throws IOException {
+        final HttpResponse<String> res;
+        // The permit is given back before deleting and uploading again below, which take their own
+        try (var permit = permit()) {
+            try {
+                res = sendAndWait(request(uri)
+                        .header("X-Generate-Checksums", Boolean.toString(genChecksum))
+                        .PUT(content).build(), HttpResponse.BodyHandlers.ofString());
+            } catch (IOException exception) {
+                // The client answers the authentication challenges itself, and gives up with this message when the
+                // credentials keep being rejected
+                if (exception.getMessage() != null && exception.getMessage().startsWith("too many authentication attempts"))
+                    throw new IOException("Not authorized to upload to " + uri, exception);
+                permit.failed(true);
+                metrics.retry(Metrics.UPLOAD, uri.toString(), exception.toString());
+                throw new RetryableException("Failed to upload to " + uri, exception);
+            }
+            if (res.statusCode() / 100 == 2) {
+                permit.succeeded(content.contentLength());
+            } else {
+                permit.failed(RetryableException.overloaded(res.statusCode()));
+            }
+        }
+
+        final int statusCode = res.statusCode();
+        if (statusCode / 100 == 2) {
+            Rewriter.LOG.info("Uploaded to " + uri + ": " + statusCode);
+            return;
+        }
+        if (statusCode == 401)
+            throw new IOException("Not authorized to upload to " + uri);
+
+        // The repository refused to overwrite the existing file. It is only deleted right before uploading again, so
+        // that the installer is never left deleted by an upload which is not retried
+        if (statusCode == 409 && replace) {
+            metrics.retry(Metrics.UPLOAD, uri.toString(), "status " + statusCode);
+            deleteExisting(uri);
+            write(uri, content, genChecksum, false);
+            return;
+        }
+        // Timeouts, rate limits (429) and server errors are retried later, while other client errors won't go away
+        if (!RetryableException.overloaded(statusCode))
+            throw new IOException("Failed to upload to " + uri + ": " + statusCode);
+        metrics.retry(Metrics.UPLOAD, uri.toString(), "status " + statusCode);
+        throw new RetryableException("Failed to upload to " + uri + ": " + statusCode, RetryPolicy.retryAfter(res.headers()));
+    }
+
+    /**
+     * {@return the exception for a failed download, which is retryable if the repository may be overloaded}
+     */
+    private static IOException downloadFailure(HttpResponse<?> res) {
+        final String message = "Failed to download " + res.uri() + ": " + res.statusCode();
+        return RetryableException.overloaded(res.statusCode()) ? new RetryableException(message, RetryPolicy.retryAfter(res.headers())) : new IOException(message);
+    }
+
+    private void deleteExisting(URI uri) {
+        try {
+            if (sendAndWait(request(uri).HEAD().build(), HttpResponse.BodyHandlers.discarding()).statusCode() == 200) {
+                var res = sendAndWait(request(uri).DELETE().build(), HttpResponse.BodyHandlers.ofString());
+                Rewriter.LOG.info("Deleted from " + res.uri() + ": " + res.statusCode());
+            }
+        } catch (Exception exception) {
+            Rewriter.LOG.debug("Failed to delete {}: ", uri, exception);
+        }
+    }
+
+    @Override
+    public void backup(String version) throws IOException {
+        backup(version, null);
+    }
+
+    /**
+     * Back up the installer of the given version, using the {@code original} bytes if they were already downloaded.
+     */
+    private void backup(String version, @Nullable ByteBuffer original) throws IOException {
+        if (backup == null) return;
+
+        var bpath = backup.resolve(artifactFolder).resolve(version).resolve(baseName + "-" + version + "-installer.jar");
+        if (Files.exists(bpath)) return;
+        Files.createDirectories(bpath.getParent());
+        try (var span = metrics.span(Metrics.BACKUP, version)) {
+            // Write to a temporary file first so that an interrupted backup is never mistaken for a complete one
+            var temp = bpath.resolveSibling(bpath.getFileName() + ".tmp");
+            if (original != null) {
+                span.bytes(original.remaining());
+                try (var channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                    while (original.hasRemaining()) {
+                        channel.write(original);
+                    }
+                }
+            } else {
+                try (var permit = permit()) {
+                    var res = sendAndWait(permit, request(installerUri(version)).GET().build(), HttpResponse.BodyHandlers.ofInputStream());
+                    try (final InputStream stream = res.body()) {
+                        if (res.statusCode() == 404) return;
+                        if (res.statusCode() != 200) {
+                            permit.failed(RetryableException.overloaded(res.statusCode()));
+                            throw downloadFailure(res);
+                        }
+                        final long bytes = Files.copy(stream, temp, StandardCopyOption.REPLACE_EXISTING);
+                        permit.succeeded(bytes);
+                        span.bytes(bytes);
+                    }
+                }
+            }
+            Files.move(temp, bpath, StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+
+    @Override
+    public @Nullable String save(Installer installer, boolean hash) {
+        if (installer == null) return null;
+
+        try {
+            final var path = installerUri(installer.version());
+            backup(installer.version(), installer.jar().source());
+
+            // The repository generates the checksum files itself, so only the SHA-256 asked for is computed here
+            var out = new ChunkedOutputStream();
+            var digest = hash ? new MultiDigest(out, Map.of("sha256", Hashing.sha256())) : null;
+            try (var span = metrics.span(Metrics.SAVE, installer.version())) {
+                installer.jar().writeTo(digest == null ? out : digest);
+                span.bytes(out.size());
+            }
+            if (digest != null)
+                metrics.record(Metrics.HASH, digest.nanos(), out.size());
+            try (var span = metrics.span(Metrics.UPLOAD, installer.version())) {
+                write(path, out.publisher(), true);
+                span.bytes(out.size());
+            }
+            Rewriter.LOG.debug("Saved {} bytes to {}", out.size(), path);
+            return digest == null ? null : digest.checksums().get("sha256");
+        } catch (Exception exception) {
+            throw new RuntimeException(exception);
+        }
+    }
+
+    @Override
+    public void close() {
+        Rewriter.LOG.info("Sent {} requests to {} ({} failed, at most {} at once)", requests.sum(), url, failures.sum(), peakInFlight.get());
+        client.close();
+        httpExecutor.close();
+    }
+}
@@ -0,0 +1,77 @@
+package net.neoforged.installerrewriter;
+
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Limits the combined size of the installers held in memory at once. Installers are admitted against their estimated
+ * size (the size of the archive) and the memory is given back once their {@link JarContents} is {@link JarContents#clear() cleared}.
+ */
+public final class MemoryBudget {
+    public static final MemoryBudget UNLIMITED = new MemoryBudget(Long.MAX_VALUE);
+    // Reserved for installers of unknown size, which is more than almost any installer needs
+    static final long UNKNOWN_SIZE = 64L * 1024 * 1024;
+
+    private final long capacity;
+    // Not using synchronized, as waiting inside a monitor would pin the virtual thread
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition released = lock.newCondition();
+    private long used;
+
+    public MemoryBudget(long capacity) {
+        if (capacity <= 0)
+            throw new IllegalArgumentException("Memory budget must be positive");
+        this.capacity = capacity;
+    }
+
+    /**
+     * Block until the given amount of bytes fits in the budget. Reservations larger than the whole budget
+     * are admitted once nothing else is reserved.
+     *
+     * @param bytes the amount of bytes, or a negative amount if unknown, which reserves {@link #UNKNOWN_SIZE}
+     */
+    public Reservation acquire(long bytes) throws InterruptedException {
+        final long amount = Math.min(bytes < 0 ? UNKNOWN_SIZE : bytes, capacity);
+        if (this == UNLIMITED)
+            return new Reservation(0);
+
+        lock.lock();
+        try {
+            while (used > 0 && used + amount > capacity) {
+                released.await();
+            }
+            used += amount;
+        } finally {
+            lock.unlock();
+        }
+        return new Reservation(amount);
+    }
+
+    private void release(long amount) {
+        if (amount == 0) return;
+
+        lock.lock();
+        try {
+            used -= amount;
+            released.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public final class Reservation implements AutoCloseable {
+        private final long amount;
+        private boolean released;
+
+        private Reservation(long amount) {
+            this.amount = amount;
+        }
+
+        @Override
+        public synchronized void close() {
+            if (released) return;
+            released = true;
+            release(amount);
+        }
+    }
+}
@@ -0,0 +1,280 @@
+package net.neoforged.installerrewriter;
+
+import com.google.gson.JsonObject;
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Period;
+import jdk.jfr.StackTrace;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Collects the time spent by the installers in each phase of a run, the bytes they transferred, the retried requests,
+ * the depths of the queues of the pipeline and the adaptive transfer limit. Every phase and retry is also emitted as a
+ * JFR event, and the depths of the queues and the transfer limit are emitted every second while a recording is running.
+ */
+final class Metrics {
+    static final String DOWNLOAD = "download";
+    static final String LOAD = "load";
+    static final String VISIT = "visit";
+    static final String SAVE = "save";
+    static final String HASH = "hash";
+    static final String UPLOAD = "upload";
+    static final String BACKUP = "backup";
+
+    private final Map<String, Timer> timers = Collections.synchronizedMap(new LinkedHashMap<>());
+    private final Map<String, LongAdder> retries = Collections.synchronizedMap(new LinkedHashMap<>());
+    private final Map<String, Integer> depths = Collections.synchronizedMap(new LinkedHashMap<>());
+    private volatile @Nullable TransferLimit transfers;
+
+    private static final class Timer {
+        final LongAdder count = new LongAdder();
+        final LongAdder nanos = new LongAdder();
+        final LongAdder bytes = new LongAdder();
+        final AtomicLong max = new AtomicLong();
+
+        void add(long nanos, long bytes) {
+            this.count.increment();
+            this.nanos.add(nanos);
+            this.bytes.add(bytes);
+            this.max.accumulateAndGet(nanos, Math::max);
+        }
+    }
+
+    /**
+     * The time spent by an installer in a phase, which ends when it is closed.
+     */
+    final class Span implements AutoCloseable {
+        private final PhaseEvent event = new PhaseEvent();
+        private final long start = System.nanoTime();
+        private long bytes;
+
+        private Span(String phase, String version) {
+            event.phase = phase;
+            event.version = version;
+            event.begin();
+        }
+
+        /**
+         * Set the amount of bytes read or written during this phase.
+         */
+        Span bytes(long bytes) {
+            this.bytes = bytes;
+            return this;
+        }
+
+        @Override
+        public void close() {
+            record(event.phase, System.nanoTime() - start, bytes);
+            event.bytes = bytes;
+            event.commit();
+        }
+    }
+
+    /**
+     * Start measuring the time spent by the given version in the given phase.
+     */
+    Span span(String phase, String version) {
+        return new Span(phase, version);
+    }
+
+    /**
+     * Record time spent in the given phase which was measured separately, such as the time spent hashing while writing.
+     * Unlike {@link #span spans}, this is not emitted as an event.
+     */
+    void record(String phase, long nanos, long bytes) {
+        timers.computeIfAbsent(phase, p -> new Timer()).add(nanos, bytes);
+    }
+
+    /**
+     * Record that a request made during the given phase is retried.
+     *
+     * @param target the target of the request
+     * @param reason why the request is retried
+     */
+    void retry(String phase, String target, String reason) {
+        retries.computeIfAbsent(phase, p -> new LongAdder()).increment();
+        final var event = new RetryEvent();
+        event.phase = phase;
+        event.target = target;
+        event.reason = reason;
+        event.commit();
+    }
+
+    /**
+     * Watch the depths of the queues of the given stages and the given transfer limit until the returned action is run.
+     */
+    Runnable watch(List<Stage<?>> stages, TransferLimit transfers) {
+        final Runnable hook = () -> {
+            for (var stage : stages) {
+                final var event = new QueueEvent();
+                event.stage = stage.name();
+                event.depth = stage.depth();
+                event.commit();
+            }
+        };
+        FlightRecorder.addPeriodicEvent(QueueEvent.class, hook);
+        final Runnable limitHook = () -> {
+            final var event = new TransferLimitEvent();
+            event.limit = transfers.current();
+            event.inFlight = transfers.inFlight();
+            event.commit();
+        };
+        if (transfers != TransferLimit.UNLIMITED) {
+            this.transfers = transfers;
+            FlightRecorder.addPeriodicEvent(TransferLimitEvent.class, limitHook);
+        }
+        return () -> {
+            FlightRecorder.removePeriodicEvent(hook);
+            FlightRecorder.removePeriodicEvent(limitHook);
+            for (var stage : stages) {
+                depths.merge(stage.name(), stage.maxDepth(), Math::max);
+            }
+        };
+    }
+
+    /**
+     * {@return a table of the time spent in each phase, followed by the retries, the queue depths and the transfer limit}
+     */
+    String summary() {
+        final var out = new StringBuilder(String.format("%-32s %8s %10s %10s %10s %12s%n", "Phase", "Count", "Total", "Mean", "Max", "Bytes"));
+        for (var entry : snapshot(timers).entrySet()) {
+            final var timer = entry.getValue();
+            final long count = timer.count.sum();
+            out.append(String.format("%-32s %8d %10s %10s %10s %12s%n", entry.getKey(), count,
+                    duration(timer.nanos.sum()), duration(count == 0 ? 0 : timer.nanos.sum() / count), duration(timer.max.get()),
+                    amount(timer.bytes.sum())));
+        }
+        final List<String> retried = new ArrayList<>();
+        snapshot(retries).forEach((phase, count) -> retried.add(phase + " " + count.sum()));
+        out.append("Retries: ").append(retried.isEmpty() ? "none" : String.join(", ", retried)).append(System.lineSeparator());
+        final List<String> queued = new ArrayList<>();
+        snapshot(depths).forEach((stage, depth) -> queued.add(stage + " " + depth));
+        out.append("Max queue depths: ").append(queued.isEmpty() ? "none" : String.join(", ", queued));
+        final var transfers = this.transfers;
+        if (transfers != null)
+            out.append(System.lineSeparator()).append(String.format("Transfer limit: %d (lowest %d, highest %d)", transfers.current(), transfers.lowest(), transfers.highest()));
+        return out.toString();
+    }
+
+    /**
+     * Write the metrics as a JSON object to the given file.
+     */
+    void write(Path path) throws IOException {
+        final var phases = new JsonObject();
+        snapshot(timers).forEach((phase, timer) -> {
+            final var json = new JsonObject();
+            json.addProperty("count", timer.count.sum());
+            json.addProperty("totalNanos", timer.nanos.sum());
+            json.addProperty("maxNanos", timer.max.get());
+            json.addProperty("bytes", timer.bytes.sum());
+            phases.add(phase, json);
+        });
+        final var retried = new JsonObject();
+        snapshot(retries).forEach((phase, count) -> retried.addProperty(phase, count.sum()));
+        final var queues = new JsonObject();
+        snapshot(depths).forEach(queues::addProperty);
+
+        final var json = new JsonObject();
+        json.add("phases", phases);
+        json.add("retries", retried);
+        json.add("maxQueueDepths", queues);
+        final var transfers = this.transfers;
+        if (transfers != null) {
+            final var limit = new JsonObject();
+            limit.addProperty("current", transfers.current());
+            limit.addProperty("lowest", transfers.lowest());
+            limit.addProperty("highest", transfers.highest());
+            json.add("transferLimit", limit);
+        }
+        if (path.getParent() != null)
+            Files.createDirectories(path.getParent());
+        try (Writer writer = Files.newBufferedWriter(path)) {
+            Utils.GSON.toJson(json, writer);
+        }
+    }
+
+    private static <T> Map<String, T> snapshot(Map<String, T> map) {
+        synchronized (map) {
+            return new LinkedHashMap<>(map);
+        }
+    }
+
+    private static String duration(long nanos) {
+        if (nanos >= 10_000_000_000L) return String.format("%.1f s", nanos / 1e9);
+        if (nanos >= 10_000_000L) return String.format("%d ms", nanos / 1_000_000);
+        return String.format("%.2f ms", nanos / 1e6);
+    }
+
+    private static String amount(long bytes) {
+        if (bytes >= 1024 * 1024) return String.format("%.1f MiB", bytes / (1024.0 * 1024));
+        if (bytes >= 1024) return String.format("%.1f KiB", bytes / 1024.0);
+        return bytes + " B";
+    }
+
+    @Name("net.neoforged.installerrewriter.Phase")
+    @Label("Installer Phase")
+    @Category("Installer Rewriter")
+    @StackTrace(false)
+    static final class PhaseEvent extends Event {
+        @Label("Phase")
+        String phase;
+        @Label("Version")
+        String version;
+        @Label("Bytes")
+        @DataAmount
+        long bytes;
+    }
+
+    @Name("net.neoforged.installerrewriter.Retry")
+    @Label("Request Retry")
+    @Category("Installer Rewriter")
+    @StackTrace(false)
+    static final class RetryEvent extends Event {
+        @Label("Phase")
+        String phase;
+        @Label("Target")
+        String target;
+        @Label("Reason")
+        String reason;
+    }
+
+    @Name("net.neoforged.installerrewriter.Queue")
+    @Label("Stage Queue")
+    @Category("Installer Rewriter")
+    @Period("1 s")
+    @StackTrace(false)
+    static final class QueueEvent extends Event {
+        @Label("Stage")
+        String stage;
+        @Label("Depth")
+        int depth;
+    }
+
+    @Name("net.neoforged.installerrewriter.TransferLimit")
+    @Label("Transfer Limit")
+    @Category("Installer Rewriter")
+    @Period("1 s")
+    @StackTrace(false)
+    static final class TransferLimitEvent extends Event {
+        @Label("Limit")
+        int limit;
+        @Label("In Flight")
+        int inFlight;
+    }
+}
@@ -0,0 +1,77 @@
+package net.neoforged.installerrewriter;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * An output stream that feeds everything written through it to all of the {@link InstallerProvider#HASHERS} at once,
+ * so that every checksum of a file is computed in a single pass while the file is being written.
+ */
+class MultiDigest extends FilterOutputStream {
+    private final Map<String, Hasher> hashers = new LinkedHashMap<>();
+    private long nanos;
+
+    MultiDigest(OutputStream out) {
+        this(out, InstallerProvider.HASHERS);
+    }
+
+    /**
+     * @param functions the hash functions to feed, keyed by file extension
+     */
+    MultiDigest(OutputStream out, Map<String, HashFunction> functions) {
+        super(out);
+        functions.forEach((ext, func) -> hashers.put(ext, func.newHasher()));
+    }
+
+    MultiDigest() {
+        this(OutputStream.nullOutputStream());
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        final long start = System.nanoTime();
+        for (var hasher : hashers.values())
+            hasher.putByte((byte) b);
+        nanos += System.nanoTime() - start;
+        out.write(b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        final long start = System.nanoTime();
+        for (var hasher : hashers.values())
+            hasher.putBytes(b, off, len);
+        nanos += System.nanoTime() - start;
+        out.write(b, off, len);
+    }
+
+    /**
+     * {@return the time spent hashing, excluding the time spent writing to the underlying stream}
+     */
+    long nanos() {
+        return nanos;
+    }
+
+    /**
+     * {@return the checksums of the data written so far, keyed by file extension}
+     * This can only be called once.
+     */
+    Map<String, String> checksums() {
+        final Map<String, String> res = new LinkedHashMap<>();
+        hashers.forEach((ext, hasher) -> res.put(ext, hasher.hash().toString()));
+        return res;
+    }
+
+    static Map<String, String> hash(InputStream stream) throws IOException {
+        final var digest = new MultiDigest();
+        stream.transferTo(digest);
+        return digest.checksums();
+    }
+}
@@ -2,16 +2,22 @@ package net.neoforged.installerrewriter;
 
 import java.io.IOException;
 import java.util.Objects;
+import java.util.jar.Manifest;
 
+/**
+ * Replaces the installer classes with the ones of a new version. The new version is merged into every installer, so it
+ * should be {@link JarContents#precompress() precompressed} beforehand instead of being compressed for every installer.
+ */
 public record NewVersionUpdate(JarContents newVersion, String version) implements InstallerRewrite {
     public static final String ATTR = "net/minecraftforge/installer/";
+
     public NewVersionUpdate(JarContents newVersion) throws IOException {
         this(newVersion, newVersion.getManifest().getAttributes(ATTR).getValue("Implementation-Version"));
     }
 
     @Override
     public void rewrite(Installer installer) throws Exception {
-        if (installer.jar().getManifest().getAttributes(ATTR) != null && Objects.equals(installer.jar().getManifest().getAttributes(ATTR).getValue("Implementation-Version"), version)) return;
+        if (isUpToDate(installer.jar().getManifest())) return;
 
         // Remove previous classes
         installer.jar().deleteFolder("net");
@@ -25,11 +31,21 @@ public record NewVersionUpdate(JarContents newVersion, String version) implement
         installer.jar().merge(newVersion, true);
     }
 
+    @Override
+    public boolean isUpToDate(Manifest manifest) {
+        return manifest.getAttributes(ATTR) != null && Objects.equals(manifest.getAttributes(ATTR).getValue("Implementation-Version"), version);
+    }
+
     @Override
     public String name() {
         return "New version update";
     }
 
+    @Override
+    public String fingerprint() {
+        return name() + " " + version;
+    }
+
     @Override
     public void close() throws Exception {
     }
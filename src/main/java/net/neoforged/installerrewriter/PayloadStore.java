@@ -0,0 +1,39 @@
+package net.neoforged.installerrewriter;
+
+import java.nio.ByteBuffer;
+import java.util.function.Supplier;
+
+/**
+ * Allocates the buffers holding the contents of a single installer: the archive it was loaded from and its inflated
+ * entries. The store is closed when the installer's jar is {@link JarContents#clear() cleared}, after which its buffers
+ * must not be used anymore.
+ */
+@FunctionalInterface
+public interface PayloadStore extends AutoCloseable {
+    /**
+     * Keeps the contents on the heap, leaving them to the garbage collector.
+     */
+    PayloadStore HEAP = ByteBuffer::allocate;
+
+    ByteBuffer allocate(int size);
+
+    /**
+     * Free the buffers of this store. Closing a store more than once has no effect.
+     */
+    @Override
+    default void close() {
+    }
+
+    /**
+     * {@return a factory of stores keeping the contents of each installer in their own off-heap arena, which is freed as
+     * soon as the installer is done instead of waiting for the garbage collector}
+     */
+    static Supplier<PayloadStore> offHeap() {
+        try {
+            new ArenaPayloadStore().close();
+        } catch (UnsupportedClassVersionError error) {
+            throw new IllegalStateException("Storing installers off-heap requires running with --enable-preview", error);
+        }
+        return ArenaPayloadStore::new;
+    }
+}
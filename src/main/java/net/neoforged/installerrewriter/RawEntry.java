@@ -0,0 +1,111 @@
+package net.neoforged.installerrewriter;
+
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+/**
+ * The stored form of a zip entry: its compression method, CRC, uncompressed size and the compressed bytes exactly as
+ * they appear in an archive. Entries in this form can be copied into a new archive without being inflated and deflated again.
+ */
+record RawEntry(int method, long crc, long size, ByteBuffer compressed) {
+    long compressedSize() {
+        return compressed.remaining();
+    }
+
+    byte[] inflate() throws ZipException {
+        if (size > Integer.MAX_VALUE - 8)
+            throw new ZipException("Entry too large: " + size);
+
+        final byte[] out = new byte[(int) size];
+        inflate(ByteBuffer.wrap(out));
+        return out;
+    }
+
+    /**
+     * Inflate this entry into the remaining space of the given buffer, which must be exactly {@link #size()} bytes.
+     * The inflated data is checked against the {@link #crc() CRC}.
+     */
+    void inflate(ByteBuffer out) throws ZipException {
+        if (out.remaining() != size)
+            throw new ZipException("Expected a buffer of " + size + " bytes but got " + out.remaining());
+
+        final CRC32 actual = new CRC32();
+        inflate(out, actual);
+        if (actual.getValue() != crc)
+            throw new ZipException("Invalid entry CRC, expected 0x" + Long.toHexString(crc) + " but got 0x" + Long.toHexString(actual.getValue()));
+    }
+
+    private void inflate(ByteBuffer out, CRC32 actual) throws ZipException {
+        if (method == ZipEntry.STORED) {
+            final int start = out.position();
+            out.put(compressed.duplicate());
+            if (out.hasArray()) {
+                actual.update(out.array(), out.arrayOffset() + start, out.position() - start);
+            } else {
+                // Like the inflater, the CRC cannot access buffers of shared arenas
+                final byte[] chunk = new byte[(int) Math.min(size, 64 * 1024)];
+                final ByteBuffer stored = out.duplicate().position(start).limit(out.position());
+                while (stored.hasRemaining()) {
+                    final int read = Math.min(chunk.length, stored.remaining());
+                    stored.get(chunk, 0, read);
+                    actual.update(chunk, 0, read);
+                }
+            }
+            return;
+        } else if (method != ZipEntry.DEFLATED) {
+            throw new ZipException("Unsupported compression method: " + method);
+        }
+
+        // The inflater cannot access buffers of shared arenas, so off-heap buffers go through arrays
+        final byte[] input;
+        final int inputOffset;
+        if (compressed.hasArray()) {
+            input = compressed.array();
+            inputOffset = compressed.arrayOffset() + compressed.position();
+        } else {
+            input = new byte[compressed.remaining()];
+            compressed.duplicate().get(input);
+            inputOffset = 0;
+        }
+        final byte[] chunk = out.hasArray() ? null : new byte[(int) Math.min(size, 64 * 1024)];
+
+        final Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(input, inputOffset, compressed.remaining());
+            boolean padded = false;
+            while (out.hasRemaining()) {
+                final int read;
+                if (chunk == null) {
+                    read = inflater.inflate(out.array(), out.arrayOffset() + out.position(), out.remaining());
+                    actual.update(out.array(), out.arrayOffset() + out.position(), read);
+                    out.position(out.position() + read);
+                } else {
+                    read = inflater.inflate(chunk, 0, Math.min(chunk.length, out.remaining()));
+                    actual.update(chunk, 0, read);
+                    out.put(chunk, 0, read);
+                }
+                if (read == 0) {
+                    if (inflater.finished() || inflater.needsDictionary())
+                        break;
+                    // Raw deflate streams may need an extra dummy byte to complete
+                    if (inflater.needsInput()) {
+                        if (padded)
+                            break;
+                        inflater.setInput(new byte[1]);
+                        padded = true;
+                    }
+                }
+            }
+            if (out.hasRemaining())
+                throw new ZipException("Truncated entry, expected " + size + " bytes but got " + (size - out.remaining()));
+        } catch (DataFormatException e) {
+            throw new ZipException("Invalid deflate data: " + e.getMessage());
+        } finally {
+            inflater.end();
+        }
+    }
+}
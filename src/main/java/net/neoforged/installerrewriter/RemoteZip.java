@@ -0,0 +1,144 @@
+package net.neoforged.installerrewriter;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Flow;
+import java.util.jar.Manifest;
+import java.util.regex.Pattern;
+
+/**
+ * Reads single entries of a remote zip using HTTP range requests, fetching only the end of central directory record,
+ * the central directory and the entry itself instead of the whole archive.
+ */
+final class RemoteZip {
+    private static final Pattern CONTENT_RANGE = Pattern.compile("bytes (\\d+)-(\\d+)/(\\d+)");
+    // Large enough to usually contain the whole central directory of an installer
+    private static final int TAIL_SIZE = 64 * 1024;
+
+    private final Fetcher fetcher;
+
+    RemoteZip(Fetcher fetcher) {
+        this.fetcher = fetcher;
+    }
+
+    /**
+     * Sends a GET request with the given {@code Range} header. Only the body of partial (206) responses needs to be read.
+     */
+    @FunctionalInterface
+    interface Fetcher {
+        HttpResponse<byte @Nullable []> fetch(String range) throws IOException;
+
+        /**
+         * A body handler that only reads partial responses, cancelling full ones without reading their body.
+         */
+        static HttpResponse.BodyHandler<byte @Nullable []> handler() {
+            return info -> info.statusCode() == 206 ? HttpResponse.BodySubscribers.ofByteArray() : new Cancelling();
+        }
+    }
+
+    /**
+     * Cancels the body as soon as it starts, which closes the connection (or resets the stream) instead of reading the
+     * body to the end like {@link HttpResponse.BodySubscribers#replacing} does.
+     */
+    private static final class Cancelling implements HttpResponse.BodySubscriber<byte @Nullable []> {
+        @Override
+        public CompletionStage<byte @Nullable []> getBody() {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            subscription.cancel();
+        }
+
+        @Override
+        public void onNext(List<ByteBuffer> item) {
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+        }
+
+        @Override
+        public void onComplete() {
+        }
+    }
+
+    /**
+     * {@return the manifest of the archive, or {@code null} if the archive has no manifest, doesn't exist or the server doesn't support range requests}
+     */
+    @Nullable
+    Manifest readManifest() throws IOException {
+        final byte[] data = read(JarContents.MANIFEST);
+        return data == null ? null : new Manifest(new ByteArrayInputStream(data));
+    }
+
+    /**
+     * {@return the uncompressed contents of the given entry, or {@code null} if the entry can't be read with range requests}
+     */
+    byte @Nullable [] read(String name) throws IOException {
+        final Range tail = fetch("bytes=-" + TAIL_SIZE);
+        if (tail == null) return null;
+
+        final var dir = ZipReader.findCentralDirectory(tail.data(), tail.offset());
+        final ByteBuffer cd;
+        if (dir.offset() >= tail.offset()) {
+            cd = tail.data().slice((int) (dir.offset() - tail.offset()), (int) dir.size());
+        } else {
+            final Range range = fetch(dir.offset(), dir.size());
+            if (range == null) return null;
+            cd = range.data();
+        }
+
+        final var entry = ZipReader.readCentralDirectory(cd, dir.count()).stream()
+                .filter(e -> e.name().equals(name))
+                .findFirst().orElse(null);
+        if (entry == null) return null;
+
+        // The extra field of the local header may differ from the central one, so start with a guess and refetch if it was too short
+        final int nameLen = entry.name().getBytes(StandardCharsets.UTF_8).length;
+        final long length = ZipReader.LOCAL_HEADER_SIZE + nameLen + entry.compressedSize() + 256;
+        Range local = fetch(entry.localHeaderOffset(), Math.min(length, dir.offset() - entry.localHeaderOffset()));
+        if (local == null) return null;
+        final var header = local.data().order(ByteOrder.LITTLE_ENDIAN);
+        if (header.limit() >= ZipReader.LOCAL_HEADER_SIZE) {
+            final long actual = ZipReader.LOCAL_HEADER_SIZE + Short.toUnsignedInt(header.getShort(26)) + Short.toUnsignedInt(header.getShort(28)) + entry.compressedSize();
+            if (actual > header.limit()) {
+                local = fetch(entry.localHeaderOffset(), actual);
+                if (local == null) return null;
+            }
+        }
+
+        final var raw = new RawEntry(entry.method(), entry.crc(), entry.size(), ZipReader.data(local.data(), local.offset(), entry));
+        return raw.inflate();
+    }
+
+    private record Range(long offset, ByteBuffer data) {
+    }
+
+    @Nullable
+    private Range fetch(long offset, long length) throws IOException {
+        return fetch("bytes=" + offset + "-" + (offset + length - 1));
+    }
+
+    @Nullable
+    private Range fetch(String range) throws IOException {
+        final var res = fetcher.fetch(range);
+        final var header = res.headers().firstValue("Content-Range").orElse(null);
+        final var matcher = header == null ? null : CONTENT_RANGE.matcher(header);
+        // A 200 means that the server ignored the range, so bail out: its body was cancelled instead of downloading the whole archive
+        if (res.statusCode() != 206 || res.body() == null || matcher == null || !matcher.matches())
+            return null;
+
+        return new Range(Long.parseLong(matcher.group(1)), ByteBuffer.wrap(res.body()));
+    }
+}
@@ -0,0 +1,64 @@
+package net.neoforged.installerrewriter;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.net.http.HttpHeaders;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * How often and after how long the items of a {@link Stage} failing with a {@link RetryableException} are retried.
+ * The delay grows exponentially with the attempts, with jitter so that items failing together are not retried together.
+ *
+ * @param maxAttempts the maximum amount of attempts for each item, including the first one
+ * @param baseDelay   the delay before the first retry, before jitter
+ * @param maxDelay    the maximum delay between two attempts, unless the server asked for a longer one
+ */
+public record RetryPolicy(int maxAttempts, Duration baseDelay, Duration maxDelay) {
+    public static final RetryPolicy NONE = new RetryPolicy(1, Duration.ZERO, Duration.ZERO);
+
+    public RetryPolicy {
+        if (maxAttempts <= 0)
+            throw new IllegalArgumentException("The maximum amount of attempts must be positive");
+    }
+
+    public static RetryPolicy defaults() {
+        return new RetryPolicy(5, Duration.ofSeconds(1), Duration.ofMinutes(1));
+    }
+
+    /**
+     * {@return the delay before retrying an item which failed the given attempt}
+     *
+     * @param attempt    the attempt which failed, starting at 1
+     * @param retryAfter the delay requested by the server, if any, which is always honoured
+     */
+    Duration delay(int attempt, @Nullable Duration retryAfter) {
+        final long max = maxDelay.toMillis();
+        final long backoff = Math.min(max, baseDelay.toMillis() << Math.min(attempt - 1, 30));
+        // Wait at least half of the backoff, so that the delay still grows with the attempts
+        final long delay = backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+        return retryAfter == null ? Duration.ofMillis(delay) : Duration.ofMillis(Math.max(delay, retryAfter.toMillis()));
+    }
+
+    /**
+     * {@return the delay requested by the {@code Retry-After} header of a response, or {@code null} if it has none}
+     */
+    static @Nullable Duration retryAfter(HttpHeaders headers) {
+        final var value = headers.firstValue("Retry-After").orElse(null);
+        if (value == null) return null;
+        try {
+            return Duration.ofSeconds(Math.max(0, Long.parseLong(value.trim())));
+        } catch (NumberFormatException ignored) {
+        }
+        try {
+            final var delay = Duration.between(Instant.now(), ZonedDateTime.parse(value.trim(), DateTimeFormatter.RFC_1123_DATE_TIME));
+            return delay.isNegative() ? Duration.ZERO : delay;
+        } catch (DateTimeParseException exception) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package net.neoforged.installerrewriter;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.io.IOException;
+import java.time.Duration;
+
+/**
+ * Thrown when a request failed in a way that may succeed later, such as the server being overloaded. The {@link Stage}
+ * handling the failed item retries it later according to its {@link RetryPolicy}.
+ */
+class RetryableException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    private final @Nullable Duration retryAfter;
+
+    RetryableException(String message, @Nullable Duration retryAfter) {
+        super(message);
+        this.retryAfter = retryAfter;
+    }
+
+    RetryableException(String message, Throwable cause) {
+        super(message, cause);
+        this.retryAfter = null;
+    }
+
+    /**
+     * {@return the delay requested by the server before retrying, if any}
+     */
+    @Nullable
+    Duration retryAfter() {
+        return retryAfter;
+    }
+
+    /**
+     * {@return whether a response with the given status means that the server may be overloaded, which is the case of
+     * failed connections, timeouts ({@code 408}), rate limits ({@code 429}) and server errors}
+     */
+    static boolean overloaded(int status) {
+        return status < 0 || status == 408 || status == 429 || status >= 500;
+    }
+
+    /**
+     * {@return the retryable exception causing the given exception, if any}
+     */
+    static @Nullable RetryableException find(Throwable exception) {
+        for (Throwable cause = exception; cause != null; cause = cause.getCause()) {
+            if (cause instanceof RetryableException retryable)
+                return retryable;
+        }
+        return null;
+    }
+}
@@ -1,5 +1,6 @@
 package net.neoforged.installerrewriter;
 
+import com.google.common.hash.Hashing;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.checkerframework.checker.nullness.qual.Nullable;
@@ -8,19 +9,32 @@ import picocli.CommandLine;
 import java.io.File;
 import java.io.IOException;
 import java.net.URI;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.Executor;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.Executors;
-import java.util.concurrent.Semaphore;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
+import java.util.jar.Manifest;
+import java.util.stream.Collectors;
 
 public class Rewriter {
     public static final Logger LOG = LogManager.getLogger();
 
     public Rewriter(List<InstallerRewrite> rewrites) {
+        this(rewrites, new Metrics());
+    }
+
+    Rewriter(List<InstallerRewrite> rewrites, Metrics metrics) {
         this.rewrites = rewrites;
+        this.metrics = metrics;
+        this.visitors = rewrites.stream().filter(r -> !r.claims().isEmpty()).toList();
+        this.claims = visitors.stream().flatMap(r -> r.claims().stream()).collect(Collectors.toSet());
     }
 
     public static class Args {
@@ -53,20 +67,74 @@ public class Rewriter {
 
                 @CommandLine.Option(names = "--maven-path")
                 public String mavenPath;
+
+                @CommandLine.Option(names = "--http-timeout", description = "The timeout (in seconds) for connecting to the maven and receiving responses")
+                public int timeout = 60;
             }
 
             public static class Directory {
                 @CommandLine.Option(names = "--rewrite-directory")
                 public File dir;
+
+                @CommandLine.Option(names = "--directory-index", description = "A file to cache the index of the directory in between runs")
+                public Path index;
             }
         }
 
         @CommandLine.Option(names = "--installer-version-update", description = "Update to the latest installer version", negatable = true)
         public boolean updateVersion;
 
-        @CommandLine.Option(names = "--thread-limit", description = "The maximum amount of threads the rewriter can use")
+        @CommandLine.Option(names = "--thread-limit", description = "The maximum amount of versions processed at once")
         public int threadLimit = -1;
 
+        @CommandLine.Option(names = "--download-limit", description = "The maximum amount of concurrent downloads")
+        public int downloadLimit = Limits.defaults().downloads();
+
+        @CommandLine.Option(names = "--rewrite-threads", description = "The amount of threads rewriting installers")
+        public int rewriteThreads = Limits.defaults().rewrites();
+
+        @CommandLine.Option(names = "--upload-limit", description = "The maximum amount of concurrent uploads")
+        public int uploadLimit = Limits.defaults().uploads();
+
+        @CommandLine.Option(names = "--upload-attempts", description = "The maximum amount of attempts to transfer an installer, retrying with exponential backoff")
+        public int uploadAttempts = RetryPolicy.defaults().maxAttempts();
+
+        @CommandLine.Option(names = "--adaptive-transfers", description = "Adapt the amount of concurrent transfers with the maven repository to how it copes, raising it while transfers are healthy and halving it on overload")
+        public boolean adaptiveTransfers;
+
+        @CommandLine.Option(names = "--min-transfers", description = "The lowest amount of concurrent transfers with --adaptive-transfers, which is also the starting amount")
+        public int minTransfers = 2;
+
+        @CommandLine.Option(names = "--max-transfers", description = "The highest amount of concurrent transfers with --adaptive-transfers. Defaults to the download limit plus the upload limit")
+        public int maxTransfers = -1;
+
+        @CommandLine.Option(names = "--queue-size", description = "The amount of installers that may wait in front of each stage")
+        public int queueSize = Limits.defaults().queueSize();
+
+        @CommandLine.Option(names = "--memory-budget", description = "The maximum combined size (in MiB) of the installers held in memory at once")
+        public long memoryBudget = -1;
+
+        @CommandLine.Option(names = "--off-heap", description = "Keep the contents of installers off-heap, freeing them as soon as they are done. Requires --enable-preview")
+        public boolean offHeap;
+
+        @CommandLine.Option(names = "--mmap", description = "Map local installers into memory instead of reading them. Installers are then replaced by moving a new file over them, which may fail on Windows while they are mapped")
+        public boolean mmap;
+
+        @CommandLine.Option(names = "--journal", description = "A file recording the progress of the rewrite, used to resume interrupted runs. It is also the report of the run, and the journals of the shards of a run can be concatenated")
+        public Path journal;
+
+        @CommandLine.Option(names = "--shard-index", description = "The index of the shard of the versions to process, starting at 0")
+        public int shardIndex = Shard.ALL.index();
+
+        @CommandLine.Option(names = "--shard-count", description = "The amount of shards to split the versions into, each processed by a separate run")
+        public int shardCount = Shard.ALL.count();
+
+        @CommandLine.Option(names = "--shard-sizes", description = "A file with the sizes of the installers, used to balance the shards by size. A dry run writes it, and other runs read it")
+        public Path shardSizes;
+
+        @CommandLine.Option(names = "--metrics-json", description = "A file to write the metrics of the run to, as JSON")
+        public Path metricsJson;
+
         @CommandLine.Option(names = "--dry")
         public boolean dry;
 
@@ -81,119 +149,298 @@ public class Rewriter {
         var arguments = new Args();
         new CommandLine(arguments).parseArgs(args);
 
+        final var metrics = new Metrics();
         InstallerProvider provider;
         if (arguments.provider.directory != null) {
-            provider = InstallerProvider.fromDir(arguments.provider.directory.dir.toPath(), arguments.backupDir);
+            provider = InstallerProvider.fromDir(arguments.provider.directory.dir.toPath(), arguments.backupDir, arguments.provider.directory.index, arguments.mmap, metrics);
         } else {
             var prov = arguments.provider.maven;
-            provider = InstallerProvider.fromMaven(prov.url, prov.user, prov.password, prov.mavenPath, arguments.backupDir);
+            var transfers = arguments.adaptiveTransfers ? TransferLimit.adaptive(arguments.minTransfers, arguments.maxTransfers > 0 ? arguments.maxTransfers : arguments.downloadLimit + arguments.uploadLimit) : TransferLimit.UNLIMITED;
+            provider = InstallerProvider.fromMaven(prov.url, prov.user, prov.password, prov.mavenPath, arguments.backupDir, Duration.ofSeconds(prov.timeout), transfers, metrics);
         }
 
-        final List<InstallerRewrite> rewrites = new ArrayList<>();
-        if (arguments.updateVersion) {
-            final var latestVersion = Utils.getURL("https://maven.neoforged.net/api/maven/latest/version/releases/net%2Fneoforged%2Flegacyinstaller?filter=3.&type=json").get("version").getAsString();
-            final var latestPath = Path.of("installer-" + latestVersion + ".jar");
-            Utils.download("https://maven.neoforged.net/releases/net/neoforged/legacyinstaller/%s/legacyinstaller-%s-shrunk.jar".formatted(latestVersion, latestVersion), latestPath);
-            rewrites.add(new NewVersionUpdate(JarContents.loadJar(latestPath.toFile())));
-        }
-
-        if (arguments.dry) {
-            var versions = provider.listVersions(arguments.filter);
-            LOG.info("Found {} versions to rewrite.", versions.size());
-            LOG.info("Versions: {}", versions);
+        try (provider) {
+            final List<InstallerRewrite> rewrites = new ArrayList<>();
+            if (arguments.updateVersion) {
+                final var latestVersion = Utils.getURL("https://maven.neoforged.net/api/maven/latest/version/releases/net%2Fneoforged%2Flegacyinstaller?filter=3.&type=json").get("version").getAsString();
+                final var latestPath = Path.of("installer-" + latestVersion + ".jar");
+                Utils.download("https://maven.neoforged.net/releases/net/neoforged/legacyinstaller/%s/legacyinstaller-%s-shrunk.jar".formatted(latestVersion, latestVersion), latestPath);
+                final var latest = arguments.mmap ? JarContents.mapJar(latestPath.toFile(), PayloadStore.HEAP) : JarContents.loadJar(latestPath.toFile());
+                latest.precompress();
+                rewrites.add(new NewVersionUpdate(latest));
+            }
 
-            for (var ver : versions) {
-                if (!provider.exists(ver)) {
-                    LOG.warn("{} doesn't have an installer", ver);
+            var shard = new Shard(arguments.shardIndex, arguments.shardCount);
+            var allVersions = provider.listVersions(arguments.filter);
+            Map<String, Long> sizes = Map.of();
+            if (arguments.shardSizes != null) {
+                if (arguments.dry) {
+                    sizes = measure(provider, allVersions, arguments.downloadLimit);
+                    Shard.writeSizes(arguments.shardSizes, sizes);
+                } else if (Files.exists(arguments.shardSizes)) {
+                    sizes = Shard.readSizes(arguments.shardSizes);
+                }
+            }
+            var versions = shard.select(allVersions, sizes);
+            if (shard.count() > 1)
+                LOG.info("Processing {} of {} versions in shard {} of {}", versions.size(), allVersions.size(), shard.index(), shard.count());
+
+            if (arguments.dry) {
+                LOG.info("Found {} versions to rewrite.", versions.size());
+                LOG.info("Versions: {}", versions);
+
+                for (var ver : versions) {
+                    // Only the installers which exist have a size
+                    if (!sizes.containsKey(ver) && !provider.exists(ver)) {
+                        LOG.warn("{} doesn't have an installer", ver);
+                    }
+                }
+            } else {
+                var budget = arguments.memoryBudget > 0 ? new MemoryBudget(arguments.memoryBudget * 1024 * 1024) : MemoryBudget.UNLIMITED;
+                var retries = new RetryPolicy(arguments.uploadAttempts, RetryPolicy.defaults().baseDelay(), RetryPolicy.defaults().maxDelay());
+                var limits = new Limits(Limiter.of(arguments.threadLimit), arguments.downloadLimit, arguments.rewriteThreads, arguments.uploadLimit, arguments.queueSize, retries);
+                var journal = arguments.journal == null ? null : Journal.open(arguments.journal);
+                Supplier<PayloadStore> stores = arguments.offHeap ? PayloadStore.offHeap() : () -> PayloadStore.HEAP;
+                try {
+                    new Rewriter(rewrites, metrics).run(provider, versions, limits, budget, stores, journal, arguments.backupOnly, arguments.updateChecksums);
+                } finally {
+                    if (arguments.metricsJson != null)
+                        metrics.write(arguments.metricsJson);
                 }
             }
-        } else {
-            new Rewriter(rewrites).run(provider, provider.listVersions(arguments.filter), arguments.threadLimit > 0 ? arguments.threadLimit : null, arguments.backupOnly, arguments.updateChecksums);
         }
     }
 
     private final List<InstallerRewrite> rewrites;
+    private final Metrics metrics;
+    // The rewrites which visit entries, and the union of their claims
+    private final List<InstallerRewrite> visitors;
+    private final Set<String> claims;
+
+    /**
+     * @param total     the limit of versions in flight across all stages
+     * @param downloads the amount of download workers
+     * @param rewrites  the amount of (CPU-bound) rewrite workers
+     * @param uploads   the amount of upload workers
+     * @param queueSize the capacity of the queue in front of each stage
+     * @param retries   how failed transfers are retried
+     */
+    public record Limits(Limiter total, int downloads, int rewrites, int uploads, int queueSize, RetryPolicy retries) {
+        public Limits {
+            if (downloads <= 0 || rewrites <= 0 || uploads <= 0 || queueSize <= 0)
+                throw new IllegalArgumentException("Stage sizes must be positive");
+        }
+
+        public static Limits defaults() {
+            return new Limits(Limiter.UNLIMITED, 16, Runtime.getRuntime().availableProcessors(), 16, 4, RetryPolicy.defaults());
+        }
+    }
+
+    private record InFlight(Installer installer, Limiter.Permit permit, @Nullable String input) {
+        void done() {
+            installer.jar().clear();
+            permit.close();
+        }
+
+        @Override
+        public String toString() {
+            return installer.version();
+        }
+    }
 
-    public void run(InstallerProvider provider, List<String> versions, @Nullable Integer limit, boolean backupOnly, boolean updateChecksums) throws Exception {
+    public void run(InstallerProvider provider, List<String> versions, Limits limits, MemoryBudget budget, Supplier<PayloadStore> stores, @Nullable Journal journal, boolean backupOnly, boolean updateChecksums) throws Exception {
         LOG.warn("Found {} versions to rewrite.", versions.size());
         LOG.info("Versions: {}", versions);
 
-        final var cfs = new ArrayList<CompletableFuture<?>>();
-        final Executor exec;
-        final AutoCloseable closeableExec;
+        final String fingerprint = rewrites.stream().map(InstallerRewrite::fingerprint).collect(Collectors.joining(", "));
 
-        var factory = Thread.ofVirtual()
-                .uncaughtExceptionHandler((t, e) -> LOG.error("Failed to run rewriter: ", e))
-                .name("installer-rewriter", 0).factory();
-        if (limit == null) {
-            closeableExec = (AutoCloseable) (exec = Executors.newThreadPerTaskExecutor(factory));
-        } else {
-            final var threaded = Executors.newThreadPerTaskExecutor(factory);
-            closeableExec = threaded;
-            final var semaphore = new Semaphore(limit);
-            exec = command -> {
-                boolean acquired = false;
-                while (!acquired) {
-                    try {
-                        semaphore.acquire();
-                        acquired = true;
-                    } catch (InterruptedException ignored) {
-                    }
-                }
-                try {
-                    threaded.execute(command);
-                } catch (Exception ex) {
-                    LOG.error("Failed to run action: ", ex);
-                } finally {
-                    semaphore.release();
-                }
-            };
-        }
+        final var virtual = Thread.ofVirtual()
+                .uncaughtExceptionHandler((t, e) -> LOG.error("Failed to run rewriter: ", e));
+        int failures;
 
         if (backupOnly) {
-            for (final String version : versions) {
-                cfs.add(CompletableFuture.runAsync(() -> {
-                    try {
-                        provider.backup(version);
-                        LOG.info("Backed up {}", version);
-                    } catch (IOException e) {
-                        throw new RuntimeException(e);
-                    }
-                }, exec));
+            final var backups = new Stage<String>("backup", limits.downloads(), limits.queueSize(), virtual.name("installer-backup-", 0).factory(), limits.retries(), version -> {
+                try (var ignored = limits.total().acquire()) {
+                    provider.backup(version);
+                    LOG.info("Backed up {}", version);
+                }
+            }, version -> {});
+            final var unwatch = metrics.watch(List.of(backups), provider.transfers());
+            try {
+                for (final String version : versions) {
+                    backups.submit(version);
+                }
+                failures = backups.finish();
+            } finally {
+                unwatch.run();
             }
         } else if (updateChecksums) {
-            for (final String version : versions) {
-                cfs.add(CompletableFuture.runAsync(() -> {
-                    try {
-                        provider.updateChecksums(provider.resolveUrl(version));
-                    } catch (Exception e) {
-                        throw new RuntimeException(e);
-                    }
-                }, exec));
+            final var checksums = new Stage<String>("update checksums of", limits.uploads(), limits.queueSize(), virtual.name("installer-checksums-", 0).factory(), limits.retries(), version -> {
+                try (var ignored = limits.total().acquire()) {
+                    provider.updateChecksums(provider.resolveUrl(version));
+                }
+            }, version -> {});
+            final var unwatch = metrics.watch(List.of(checksums), provider.transfers());
+            try {
+                for (final String version : versions) {
+                    checksums.submit(version);
+                }
+                failures = checksums.finish();
+            } finally {
+                unwatch.run();
             }
         } else {
-            for (final String version : versions) {
-                cfs.add(provider.provideInstaller(version, exec).thenApply(this::proc)
-                        .thenAccept(inst -> {
-                            if (inst != null) {
-                                provider.save(inst);
-                                inst.jar().clear();
-                            }
-                        }));
+            // Downloads and uploads are latency-bound and get many virtual workers, while rewriting is CPU-bound and gets
+            // a small pool of platform threads. The stages are joined by bounded queues, so a slow stage holds back the ones feeding it
+            // Installers failing to upload keep their memory while waiting to be retried, and are only cleared once done
+            final var uploadStage = new Stage<InFlight>("upload", limits.uploads(), limits.queueSize(), virtual.name("installer-upload-", 0).factory(), limits.retries(), inFlight -> {
+                // The SHA-256 of the output is only kept by the journal
+                final String output = provider.save(inFlight.installer(), journal != null);
+                try {
+                    record(journal, inFlight.installer().version(), Journal.Status.UPLOADED, fingerprint, inFlight.input(), output);
+                } finally {
+                    inFlight.done();
+                }
+            }, inFlight -> {
+                fail(journal, inFlight.installer().version(), fingerprint, inFlight.input());
+                inFlight.done();
+            });
+            final var rewriteStage = new Stage<InFlight>("rewrite", limits.rewrites(), limits.queueSize(), Thread.ofPlatform().daemon().name("installer-rewrite-", 0).factory(), RetryPolicy.NONE, inFlight -> {
+                boolean uploading = false;
+                try {
+                    if (process(inFlight.installer()) != null) {
+                        uploadStage.submit(inFlight);
+                        uploading = true;
+                    } else {
+                        record(journal, inFlight.installer().version(), Journal.Status.UNCHANGED, fingerprint, inFlight.input(), null);
+                    }
+                } finally {
+                    // Always clear the jar, even if it was skipped, to release its memory reservation
+                    if (!uploading)
+                        inFlight.done();
+                }
+            }, inFlight -> fail(journal, inFlight.installer().version(), fingerprint, inFlight.input()));
+            final var downloadStage = new Stage<String>("download", limits.downloads(), limits.queueSize(), virtual.name("installer-download-", 0).factory(), limits.retries(), version -> {
+                if (journal != null && journal.isDone(version, fingerprint)) {
+                    LOG.info("Skipped {}, already processed by a previous run", version);
+                    return;
+                }
+                if (isUpToDate(provider, version)) {
+                    LOG.info("Skipped {}, already up to date", version);
+                    record(journal, version, Journal.Status.UNCHANGED, fingerprint, null, null);
+                    return;
+                }
+
+                // The permit of the total limit is held until the version leaves the pipeline
+                final var permit = limits.total().acquire();
+                final Installer inst;
+                try {
+                    // The provider is given a direct executor so that the download happens on this worker
+                    inst = provider.provideInstaller(version, Runnable::run, budget, stores.get()).join();
+                } catch (Exception e) {
+                    permit.close();
+                    throw e;
+                }
+                if (inst == null) {
+                    permit.close();
+                    return;
+                }
+
+                final var source = journal == null ? null : inst.jar().source();
+                final var inFlight = new InFlight(inst, permit, source == null ? null : Hashing.sha256().hashBytes(source).toString());
+                try {
+                    record(journal, version, Journal.Status.STARTED, fingerprint, inFlight.input(), null);
+                    rewriteStage.submit(inFlight);
+                } catch (Exception e) {
+                    inFlight.done();
+                    throw e;
+                }
+            }, version -> fail(journal, version, fingerprint, null));
+
+            final var unwatch = metrics.watch(List.of(downloadStage, rewriteStage, uploadStage), provider.transfers());
+            try {
+                for (final String version : versions) {
+                    downloadStage.submit(version);
+                }
+                failures = downloadStage.finish();
+                failures += rewriteStage.finish();
+                failures += uploadStage.finish();
+            } finally {
+                unwatch.run();
             }
         }
 
-        // And wait for the upload to complete
-        CompletableFuture.allOf(cfs.toArray(CompletableFuture[]::new)).join();
-
-        closeableExec.close();
         for (InstallerRewrite rewrite : rewrites) {
             rewrite.close();
         }
+        if (journal != null)
+            journal.close();
+
+        LOG.info("Metrics:{}{}", System.lineSeparator(), metrics.summary());
+        if (failures > 0)
+            throw new IllegalStateException(failures + " versions failed to be processed");
 
         LOG.info("Finished rewriting!");
     }
 
+    private static void record(@Nullable Journal journal, String version, Journal.Status status, String fingerprint, @Nullable String input, @Nullable String output) throws IOException {
+        if (journal != null)
+            journal.record(version, status, fingerprint, input, output);
+    }
+
+    /**
+     * Record that the given version failed for good. Failing to record it only loses the report, as the version is
+     * processed again by the next run either way.
+     */
+    private static void fail(@Nullable Journal journal, String version, String fingerprint, @Nullable String input) {
+        try {
+            record(journal, version, Journal.Status.FAILED, fingerprint, input, null);
+        } catch (IOException e) {
+            LOG.error("Failed to record the failure of {}: ", version, e);
+        }
+    }
+
+    /**
+     * Measure the sizes of the installers of the given versions, leaving out the ones which are missing or unknown.
+     */
+    private static Map<String, Long> measure(InstallerProvider provider, List<String> versions, int parallelism) throws Exception {
+        final var limiter = Limiter.of(parallelism);
+        final Map<String, Future<Long>> futures = new LinkedHashMap<>();
+        try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (final String version : versions) {
+                futures.put(version, executor.submit(() -> limiter.call(() -> provider.size(version))));
+            }
+        }
+        final Map<String, Long> sizes = new LinkedHashMap<>();
+        for (var entry : futures.entrySet()) {
+            final long size = entry.getValue().get();
+            if (size >= 0)
+                sizes.put(entry.getKey(), size);
+        }
+        LOG.info("Measured the sizes of {} of {} installers", sizes.size(), versions.size());
+        return sizes;
+    }
+
+    /**
+     * Check whether all rewrites would leave the installer unchanged, based on its remotely inspected manifest.
+     */
+    private boolean isUpToDate(InstallerProvider provider, String version) {
+        final Manifest manifest;
+        try {
+            manifest = provider.inspectManifest(version);
+        } catch (Exception e) {
+            LOG.debug("Failed to inspect {}, falling back to a full download: ", version, e);
+            return false;
+        }
+        if (manifest == null) return false;
+
+        for (var rewrite : rewrites) {
+            if (!rewrite.isUpToDate(manifest))
+                return false;
+        }
+        return true;
+    }
+
     public Installer proc(Installer installer) {
         if (installer == null) return null;
 
@@ -208,10 +455,44 @@ public class Rewriter {
         LOG.info("Processing installer {} ({}):", installer.version(), installer.path());
         for (var rewrite : rewrites) {
             LOG.info("Rewriting {} with {}", installer.version(), rewrite.name());
-            rewrite.rewrite(installer);
+            try (var ignored = metrics.span("rewrite: " + rewrite.name(), installer.version())) {
+                rewrite.rewrite(installer);
+            }
         }
+        visit(installer);
         boolean rewritten = installer.jar().changed();
-        LOG.info("Processed {}", installer.version() + (rewritten ? "" : ". Skipped."));
+        LOG.info("Processed {}", installer.version() + (rewritten ? " (" + installer.jar().changes() + ")" : ". Skipped."));
         return rewritten ? installer : null;
     }
+
+    /**
+     * Let the rewrites visit the entries they claim, in a single pass over the claimed entries.
+     */
+    private void visit(Installer installer) throws Exception {
+        if (visitors.isEmpty()) return;
+
+        final var jar = installer.jar();
+        int visited = 0;
+        try (var ignored = metrics.span(Metrics.VISIT, installer.version())) {
+            for (final String name : jar.getFiles(claims)) {
+                final byte[] original = jar.getBytes(name);
+                byte[] data = original;
+                for (final var visitor : visitors) {
+                    if (visitor.claims().stream().noneMatch(name::startsWith))
+                        continue;
+                    data = visitor.visit(installer, name, data);
+                    if (data == null)
+                        break;
+                }
+
+                if (data == null) {
+                    jar.delete(name);
+                } else if (data != original) {
+                    jar.write(name, data);
+                }
+                visited++;
+            }
+        }
+        LOG.debug("Visited {} entries of {}", visited, installer.version());
+    }
 }
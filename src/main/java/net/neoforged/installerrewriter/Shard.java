@@ -0,0 +1,95 @@
+package net.neoforged.installerrewriter;
+
+import com.google.common.hash.Hashing;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A deterministic subset of the versions, so that a run can be spread over several machines each running one shard.
+ * <p>
+ * Versions are assigned by a hash of their name, which doesn't depend on the other versions, so that a version
+ * published while the shards run doesn't move the others to another shard. If the sizes of the installers are known,
+ * the versions are instead balanced by size, placing the largest installers first on the shard with the fewest bytes.
+ * All shards must then be given the same sizes, which is why they are read from a file rather than measured by each shard.
+ *
+ * @param index the index of this shard, starting at 0
+ * @param count the amount of shards
+ */
+public record Shard(int index, int count) {
+    public static final Shard ALL = new Shard(0, 1);
+
+    public Shard {
+        if (count <= 0 || index < 0 || index >= count)
+            throw new IllegalArgumentException("Invalid shard " + index + " of " + count);
+    }
+
+    /**
+     * {@return the versions of this shard, in the order of the given versions}
+     *
+     * @param sizes the sizes of the installers, in bytes, which may be missing some versions
+     */
+    public List<String> select(List<String> versions, Map<String, Long> sizes) {
+        if (count == 1) return versions;
+
+        final Set<String> selected = new HashSet<>();
+        final List<String> sized = new ArrayList<>();
+        for (final String version : versions) {
+            if (sizes.containsKey(version)) {
+                sized.add(version);
+            } else if (Math.floorMod(Hashing.murmur3_32_fixed().hashString(version, StandardCharsets.UTF_8).asInt(), count) == index) {
+                selected.add(version);
+            }
+        }
+
+        // Ties are broken by name so that every shard computes the same assignment
+        sized.sort(Comparator.<String>comparingLong(sizes::get).reversed().thenComparing(Comparator.naturalOrder()));
+        final long[] loads = new long[count];
+        for (final String version : sized) {
+            int lightest = 0;
+            for (int i = 1; i < count; i++) {
+                if (loads[i] < loads[lightest]) lightest = i;
+            }
+            loads[lightest] += sizes.get(version);
+            if (lightest == index) selected.add(version);
+        }
+        return versions.stream().filter(selected::contains).toList();
+    }
+
+    /**
+     * Read the sizes of installers written by {@link #writeSizes}, one version and its size per line, separated by a tab.
+     */
+    public static Map<String, Long> readSizes(Path path) throws IOException {
+        final Map<String, Long> sizes = new LinkedHashMap<>();
+        for (final String line : Files.readAllLines(path, StandardCharsets.UTF_8)) {
+            final String[] split = line.split("\t");
+            if (split.length != 2) continue;
+            try {
+                sizes.put(split[0], Long.parseLong(split[1]));
+            } catch (NumberFormatException ignored) {
+            }
+        }
+        return sizes;
+    }
+
+    public static void writeSizes(Path path, Map<String, Long> sizes) throws IOException {
+        if (path.toAbsolutePath().getParent() != null)
+            Files.createDirectories(path.toAbsolutePath().getParent());
+        try (BufferedWriter writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+            for (var entry : sizes.entrySet()) {
+                writer.write(entry.getKey() + "\t" + entry.getValue());
+                writer.write('\n');
+            }
+        }
+    }
+}
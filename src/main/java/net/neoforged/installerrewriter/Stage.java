@@ -0,0 +1,181 @@
+package net.neoforged.installerrewriter;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * A stage of the rewrite pipeline: a fixed pool of workers consuming a bounded queue. Submitting to a full stage
+ * blocks, which propagates backpressure to the stage feeding it.
+ * <p>
+ * Items failing with a {@link RetryableException} are put back into the queue once their retry delay has passed,
+ * instead of holding a worker while waiting.
+ */
+final class Stage<T> {
+    private static final Object END = new Object();
+
+    private record Attempt<T>(T item, int number) {
+    }
+
+    private final String name;
+    private final Handler<T> handler;
+    private final RetryPolicy retries;
+    private final Consumer<T> discard;
+    private final BlockingQueue<Object> queue;
+    private final List<Thread> workers = new ArrayList<>();
+    private final AtomicInteger failures = new AtomicInteger();
+    private final AtomicInteger maxDepth = new AtomicInteger();
+
+    // The items which were submitted but are not done yet, including the ones waiting to be retried
+    private int pending;
+    // Not using synchronized, as waiting inside a monitor would pin the virtual thread
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition idle = lock.newCondition();
+
+    /**
+     * @param retries how the items failing with a {@link RetryableException} are retried
+     * @param discard called with the items which failed for good
+     */
+    Stage(String name, int workers, int capacity, ThreadFactory factory, RetryPolicy retries, Handler<T> handler, Consumer<T> discard) {
+        this.name = name;
+        this.handler = handler;
+        this.retries = retries;
+        this.discard = discard;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        for (int i = 0; i < workers; i++) {
+            final Thread thread = factory.newThread(this::work);
+            this.workers.add(thread);
+            thread.start();
+        }
+    }
+
+    /**
+     * Queue an item for this stage, blocking while the queue is full.
+     */
+    void submit(T item) throws InterruptedException {
+        lock.lock();
+        try {
+            pending++;
+        } finally {
+            lock.unlock();
+        }
+        try {
+            put(new Attempt<>(item, 1));
+        } catch (InterruptedException e) {
+            // The item never made it into the queue, so it must not hold back finish
+            done();
+            throw e;
+        }
+    }
+
+    private void put(Attempt<T> attempt) throws InterruptedException {
+        queue.put(attempt);
+        maxDepth.accumulateAndGet(queue.size(), Math::max);
+    }
+
+    /**
+     * Signal that no more items will be submitted and wait for the queued items to be processed.
+     *
+     * @return the amount of items that failed
+     */
+    int finish() throws InterruptedException {
+        // Items may still be put back into the queue until they are all done
+        lock.lock();
+        try {
+            while (pending > 0)
+                idle.await();
+        } finally {
+            lock.unlock();
+        }
+        for (int i = 0; i < workers.size(); i++) {
+            queue.put(END);
+        }
+        for (final Thread worker : workers) {
+            worker.join();
+        }
+        return failures.get();
+    }
+
+    String name() {
+        return name;
+    }
+
+    int depth() {
+        return queue.size();
+    }
+
+    /**
+     * {@return the largest amount of items that were waiting in the queue at once}
+     */
+    int maxDepth() {
+        return maxDepth.get();
+    }
+
+    @SuppressWarnings("unchecked")
+    private void work() {
+        while (true) {
+            final Object item;
+            try {
+                item = queue.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (item == END) return;
+
+            final var attempt = (Attempt<T>) item;
+            try {
+                handler.accept(attempt.item());
+                done();
+            } catch (Throwable e) {
+                final var retryable = RetryableException.find(e);
+                if (retryable != null && attempt.number() < retries.maxAttempts()) {
+                    retry(attempt, retries.delay(attempt.number(), retryable.retryAfter()), e);
+                } else {
+                    failures.incrementAndGet();
+                    Rewriter.LOG.error("Failed to {} {}: ", name, attempt.item(), e);
+                    try {
+                        discard.accept(attempt.item());
+                    } finally {
+                        done();
+                    }
+                }
+            }
+        }
+    }
+
+    private void retry(Attempt<T> attempt, Duration delay, Throwable cause) {
+        Rewriter.LOG.warn("Failed to {} {} (attempt {} of {}), retrying in {} ms: {}", name, attempt.item(), attempt.number(), retries.maxAttempts(), delay.toMillis(), cause.toString());
+        Thread.ofVirtual().name(name + "-retry").start(() -> {
+            try {
+                Thread.sleep(delay);
+                put(new Attempt<>(attempt.item(), attempt.number() + 1));
+            } catch (InterruptedException e) {
+                failures.incrementAndGet();
+                discard.accept(attempt.item());
+                done();
+            }
+        });
+    }
+
+    private void done() {
+        lock.lock();
+        try {
+            if (--pending == 0)
+                idle.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @FunctionalInterface
+    interface Handler<T> {
+        void accept(T item) throws Exception;
+    }
+}
@@ -0,0 +1,192 @@
+package net.neoforged.installerrewriter;
+
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounds the amount of concurrent transfers with a repository, adapting the bound to how the repository copes, in the
+ * style of TCP congestion control. The limit grows while transfers succeed at their usual speed: it doubles every round
+ * of transfers until the first sign of overload, and then grows by one every round. It is halved when a transfer fails
+ * in a way which may be caused by the load, such as a {@code 429} or a {@code 5xx}, or when a transfer takes much longer
+ * per byte than usual. The limit is only cut once per round, as the transfers started before a cut reflect the load
+ * before it.
+ */
+public final class TransferLimit {
+    public static final TransferLimit UNLIMITED = new TransferLimit(Integer.MAX_VALUE, Integer.MAX_VALUE);
+
+    // A transfer taking this many times longer per byte than usual is considered a latency spike
+    private static final double SPIKE = 2.5;
+    // The weight of each healthy transfer in the usual time per byte
+    private static final double SMOOTHING = 0.1;
+
+    private final int min;
+    private final int max;
+
+    // Not using synchronized, as waiting inside a monitor would pin the virtual thread
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition available = lock.newCondition();
+    private double limit;
+    private int inFlight;
+    private boolean slowStart = true;
+    private long lastCut;
+    private double usualNanosPerByte = Double.NaN;
+    private int lowest;
+    private int highest;
+
+    private TransferLimit(int min, int max) {
+        this.min = min;
+        this.max = max;
+        this.limit = min;
+        this.lowest = min;
+        this.highest = min;
+        this.lastCut = System.nanoTime();
+    }
+
+    /**
+     * {@return a limit adapting between the given bounds, starting at the lower one}
+     */
+    public static TransferLimit adaptive(int min, int max) {
+        if (min <= 0 || max < min)
+            throw new IllegalArgumentException("Invalid transfer limit bounds: " + min + " to " + max);
+        return new TransferLimit(min, max);
+    }
+
+    /**
+     * {@return a limit which stays at the given amount of transfers}
+     */
+    public static TransferLimit fixed(int limit) {
+        return adaptive(limit, limit);
+    }
+
+    /**
+     * Wait until another transfer may start.
+     */
+    Permit acquire() throws InterruptedException {
+        if (this == UNLIMITED) return new Permit();
+        lock.lock();
+        try {
+            while (inFlight >= (int) limit)
+                available.await();
+            inFlight++;
+        } finally {
+            lock.unlock();
+        }
+        return new Permit();
+    }
+
+    int current() {
+        lock.lock();
+        try {
+            return (int) limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int inFlight() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * {@return the lowest limit since the start}
+     */
+    int lowest() {
+        lock.lock();
+        try {
+            return lowest;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * {@return the highest limit since the start}
+     */
+    int highest() {
+        lock.lock();
+        try {
+            return highest;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void release(long start, long nanos, long bytes, boolean succeeded, boolean overloaded) {
+        if (this == UNLIMITED) return;
+        lock.lock();
+        try {
+            inFlight--;
+            if (succeeded && bytes > 0) {
+                final double nanosPerByte = (double) nanos / bytes;
+                if (Double.isNaN(usualNanosPerByte)) {
+                    usualNanosPerByte = nanosPerByte;
+                } else if (nanosPerByte > usualNanosPerByte * SPIKE) {
+                    overloaded = true;
+                } else {
+                    // Spikes are left out, so that a slow drift does not hide them
+                    usualNanosPerByte += (nanosPerByte - usualNanosPerByte) * SMOOTHING;
+                }
+            }
+
+            if (overloaded) {
+                if (start > lastCut) {
+                    limit = Math.max(min, limit / 2);
+                    slowStart = false;
+                    lastCut = System.nanoTime();
+                    Rewriter.LOG.info("Lowered the transfer limit to {}", (int) limit);
+                }
+            } else if (succeeded) {
+                // Growing by one (or by one over the limit) for every transfer grows the limit by itself (or by one) every round
+                limit = Math.min(max, limit + (slowStart ? 1 : 1 / limit));
+            }
+            lowest = Math.min(lowest, (int) limit);
+            highest = Math.max(highest, (int) limit);
+            available.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * The permission to run a transfer. The outcome of the transfer should be reported before the permit is closed,
+     * otherwise the transfer is ignored by the limit.
+     */
+    final class Permit implements AutoCloseable {
+        private final long start = System.nanoTime();
+        private boolean released;
+
+        private Permit() {
+        }
+
+        /**
+         * Report that the transfer succeeded after transferring the given amount of bytes, or {@code 0} if unknown.
+         */
+        void succeeded(long bytes) {
+            release(bytes, true, false);
+        }
+
+        /**
+         * Report that the transfer failed, which lowers the limit if the failure may be caused by the load, such as a
+         * failed connection or a {@link RetryableException#overloaded(int) status} telling that the server is overloaded.
+         */
+        void failed(boolean overloaded) {
+            release(0, false, overloaded);
+        }
+
+        private void release(long bytes, boolean succeeded, boolean overloaded) {
+            if (released) return;
+            released = true;
+            TransferLimit.this.release(start, System.nanoTime() - start, bytes, succeeded, overloaded);
+        }
+
+        @Override
+        public void close() {
+            release(0, false, false);
+        }
+    }
+}
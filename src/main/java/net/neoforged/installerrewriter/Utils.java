@@ -40,6 +40,12 @@ public class Utils {
             if (stream == null) {
                 return List.of();
             }
+            return getLatestFromMavenMetadata(stream);
+        }
+    }
+
+    public static List<String> getLatestFromMavenMetadata(InputStream stream) throws IOException {
+        try {
             final var doc = DocumentBuilderFactory.newInstance()
                     .newDocumentBuilder()
                     .parse(stream);
@@ -0,0 +1,181 @@
+package net.neoforged.installerrewriter;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.ZipException;
+
+/**
+ * A minimal zip reader that keeps entries in their compressed form, so that they can be passed through to
+ * {@link ZipWriter} untouched.
+ */
+final class ZipReader {
+    static final int LOCAL_HEADER = 0x04034b50;
+    static final int CENTRAL_HEADER = 0x02014b50;
+    static final int END_HEADER = 0x06054b50;
+    static final int ZIP64_LOCATOR = 0x07064b50;
+
+    static final int LOCAL_HEADER_SIZE = 30;
+    static final int CENTRAL_HEADER_SIZE = 46;
+    static final int END_HEADER_SIZE = 22;
+    static final int ZIP64_LOCATOR_SIZE = 20;
+    static final int MAX_COMMENT = 0xFFFF;
+
+    static final int EXTENDED_TIMESTAMP = 0x5455;
+    static final int NTFS = 0x000a;
+    // The difference between the epochs of Windows (1601) and Java times, in milliseconds
+    static final long WINDOWS_EPOCH_OFFSET = 11644473600000L;
+
+    private ZipReader() {
+    }
+
+    record Entry(String name, long time, RawEntry raw) {
+        boolean isDirectory() {
+            return name.endsWith("/");
+        }
+    }
+
+    record CentralDirectory(long offset, long size, int count) {
+    }
+
+    record CentralEntry(String name, int flags, long time, int method, long crc, long compressedSize, long size, long localHeaderOffset) {
+    }
+
+    static List<Entry> read(ByteBuffer archive) throws ZipException {
+        final var buf = archive.slice().order(ByteOrder.LITTLE_ENDIAN);
+        final var dir = findCentralDirectory(buf, 0);
+        if (dir.offset() + dir.size() > buf.limit())
+            throw new ZipException("Central directory out of bounds");
+
+        final var central = readCentralDirectory(buf.slice((int) dir.offset(), (int) dir.size()), dir.count());
+        final var entries = new ArrayList<Entry>(central.size());
+        for (final var ent : central) {
+            entries.add(new Entry(ent.name(), ent.time(), new RawEntry(ent.method(), ent.crc(), ent.size(), data(buf, 0, ent))));
+        }
+        return entries;
+    }
+
+    /**
+     * Locate the end of central directory record in the given tail of an archive.
+     *
+     * @param tail       the last bytes of the archive
+     * @param tailOffset the offset of {@code tail} in the archive
+     */
+    static CentralDirectory findCentralDirectory(ByteBuffer tail, long tailOffset) throws ZipException {
+        tail = tail.slice().order(ByteOrder.LITTLE_ENDIAN);
+        final int min = Math.max(0, tail.limit() - END_HEADER_SIZE - MAX_COMMENT);
+        for (int pos = tail.limit() - END_HEADER_SIZE; pos >= min; pos--) {
+            if (tail.getInt(pos) != END_HEADER)
+                continue;
+            // Make sure that the comment length is consistent, so that we don't pick up a signature inside of the comment
+            if (pos + END_HEADER_SIZE + Short.toUnsignedInt(tail.getShort(pos + 20)) != tail.limit())
+                continue;
+
+            final int count = Short.toUnsignedInt(tail.getShort(pos + 10));
+            final long size = Integer.toUnsignedLong(tail.getInt(pos + 12));
+            final long offset = Integer.toUnsignedLong(tail.getInt(pos + 16));
+            // A count of 0xFFFF is only a ZIP64 marker if the ZIP64 locator precedes this record, as it is also the
+            // count of an archive with exactly 65535 entries
+            if (size == 0xFFFFFFFFL || offset == 0xFFFFFFFFL || (pos >= ZIP64_LOCATOR_SIZE && tail.getInt(pos - ZIP64_LOCATOR_SIZE) == ZIP64_LOCATOR))
+                throw new ZipException("ZIP64 archives are not supported, which archives of more than 65535 entries or 4 GiB require");
+            if (offset + size > tailOffset + pos)
+                throw new ZipException("Invalid central directory location");
+            return new CentralDirectory(offset, size, count);
+        }
+        throw new ZipException("Could not find end of central directory");
+    }
+
+    static List<CentralEntry> readCentralDirectory(ByteBuffer cd, int count) throws ZipException {
+        cd = cd.slice().order(ByteOrder.LITTLE_ENDIAN);
+        final var entries = new ArrayList<CentralEntry>(count);
+        int pos = 0;
+        for (int i = 0; i < count; i++) {
+            if (pos + CENTRAL_HEADER_SIZE > cd.limit() || cd.getInt(pos) != CENTRAL_HEADER)
+                throw new ZipException("Invalid central directory header");
+
+            final int flags = Short.toUnsignedInt(cd.getShort(pos + 8));
+            final int method = Short.toUnsignedInt(cd.getShort(pos + 10));
+            final long dosTime = Integer.toUnsignedLong(cd.getInt(pos + 12));
+            final long crc = Integer.toUnsignedLong(cd.getInt(pos + 16));
+            final long compressedSize = Integer.toUnsignedLong(cd.getInt(pos + 20));
+            final long size = Integer.toUnsignedLong(cd.getInt(pos + 24));
+            final int nameLen = Short.toUnsignedInt(cd.getShort(pos + 28));
+            final int extraLen = Short.toUnsignedInt(cd.getShort(pos + 30));
+            final int commentLen = Short.toUnsignedInt(cd.getShort(pos + 32));
+            final long offset = Integer.toUnsignedLong(cd.getInt(pos + 42));
+            if ((flags & 1) != 0)
+                throw new ZipException("Encrypted entries are not supported");
+            if (compressedSize == 0xFFFFFFFFL || size == 0xFFFFFFFFL || offset == 0xFFFFFFFFL)
+                throw new ZipException("ZIP64 entries are not supported");
+
+            final int nameStart = pos + CENTRAL_HEADER_SIZE;
+            if (nameStart + nameLen + extraLen + commentLen > cd.limit())
+                throw new ZipException("Central directory header out of bounds");
+
+            final byte[] name = new byte[nameLen];
+            cd.get(nameStart, name);
+            final long time = readTime(cd.slice(nameStart + nameLen, extraLen).order(ByteOrder.LITTLE_ENDIAN), dosTime);
+
+            entries.add(new CentralEntry(new String(name, StandardCharsets.UTF_8), flags, time, method, crc, compressedSize, size, offset));
+            pos = nameStart + nameLen + extraLen + commentLen;
+        }
+        // Writers without ZIP64 support may let the count overflow, which would otherwise silently drop entries
+        if (pos + 4 <= cd.limit() && cd.getInt(pos) == CENTRAL_HEADER)
+            throw new ZipException("The central directory holds more than the " + count + " entries it declares, archives of more than 65535 entries are not supported");
+        return entries;
+    }
+
+    /**
+     * Slice the compressed data of an entry out of a buffer containing its local header.
+     *
+     * @param buf       a buffer containing (part of) the archive
+     * @param bufOffset the offset of {@code buf} in the archive
+     */
+    static ByteBuffer data(ByteBuffer buf, long bufOffset, CentralEntry entry) throws ZipException {
+        buf = buf.order(ByteOrder.LITTLE_ENDIAN);
+        final int pos = Math.toIntExact(entry.localHeaderOffset() - bufOffset);
+        if (pos < 0 || pos + LOCAL_HEADER_SIZE > buf.limit() || buf.getInt(pos) != LOCAL_HEADER)
+            throw new ZipException("Invalid local header for " + entry.name());
+
+        final int start = pos + LOCAL_HEADER_SIZE + Short.toUnsignedInt(buf.getShort(pos + 26)) + Short.toUnsignedInt(buf.getShort(pos + 28));
+        if (start + entry.compressedSize() > buf.limit())
+            throw new ZipException("Entry data out of bounds for " + entry.name());
+        return buf.slice(start, (int) entry.compressedSize()).asReadOnlyBuffer();
+    }
+
+    private static long readTime(ByteBuffer extra, long dosTime) {
+        int pos = 0;
+        while (pos + 4 <= extra.limit()) {
+            final int id = Short.toUnsignedInt(extra.getShort(pos));
+            final int len = Short.toUnsignedInt(extra.getShort(pos + 2));
+            pos += 4;
+            if (pos + len > extra.limit())
+                break;
+            // The central directory copy of the extended timestamp only carries the modification time
+            if (id == EXTENDED_TIMESTAMP && len >= 5 && (extra.get(pos) & 1) != 0)
+                return extra.getInt(pos + 1) * 1000L;
+            // The NTFS times, in 100ns since 1601, carry the times which the extended timestamp can't
+            if (id == NTFS && len >= 32 && extra.getShort(pos + 4) == 1 && extra.getShort(pos + 6) == 24)
+                return extra.getLong(pos + 8) / 10_000 - WINDOWS_EPOCH_OFFSET;
+            pos += len;
+        }
+        return dosToJavaTime(dosTime);
+    }
+
+    static long dosToJavaTime(long dosTime) {
+        // Compose the date leniently like java.util.Date does, as some tools write out of range fields
+        return LocalDateTime.of((int) (((dosTime >> 25) & 0x7f) + 1980), 1, 1, 0, 0)
+                .plusMonths(((dosTime >> 21) & 0x0f) - 1)
+                .plusDays(((dosTime >> 16) & 0x1f) - 1)
+                .plusHours((dosTime >> 11) & 0x1f)
+                .plusMinutes((dosTime >> 5) & 0x3f)
+                .plusSeconds((dosTime << 1) & 0x3e)
+                .atZone(ZoneId.systemDefault())
+                .toInstant()
+                .toEpochMilli();
+    }
+}
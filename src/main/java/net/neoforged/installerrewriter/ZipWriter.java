@@ -0,0 +1,253 @@
+package net.neoforged.installerrewriter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+import static net.neoforged.installerrewriter.ZipReader.CENTRAL_HEADER;
+import static net.neoforged.installerrewriter.ZipReader.CENTRAL_HEADER_SIZE;
+import static net.neoforged.installerrewriter.ZipReader.END_HEADER;
+import static net.neoforged.installerrewriter.ZipReader.END_HEADER_SIZE;
+import static net.neoforged.installerrewriter.ZipReader.EXTENDED_TIMESTAMP;
+import static net.neoforged.installerrewriter.ZipReader.LOCAL_HEADER;
+import static net.neoforged.installerrewriter.ZipReader.LOCAL_HEADER_SIZE;
+import static net.neoforged.installerrewriter.ZipReader.NTFS;
+import static net.neoforged.installerrewriter.ZipReader.WINDOWS_EPOCH_OFFSET;
+
+/**
+ * A minimal zip writer which accepts entries in their {@link RawEntry compressed form}, copying them into the archive
+ * as-is. Only entries given as plain bytes are deflated.
+ * <p>
+ * Closing the writer finishes the archive but leaves the underlying stream open. If adding an entry failed, the archive
+ * is left unfinished instead, so that it cannot be mistaken for a complete one.
+ */
+final class ZipWriter implements Closeable {
+    private static final int UTF8_FLAG = 0x800;
+    private static final long DOSTIME_BEFORE_1980 = (1 << 21) | (1 << 16);
+
+    private final OutputStream out;
+    private final WritableByteChannel channel;
+    private final ByteArrayOutputStream central = new ByteArrayOutputStream();
+    private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+    private long written;
+    private int count;
+    private boolean failed;
+    private boolean closed;
+
+    ZipWriter(OutputStream out) {
+        this.out = out;
+        this.channel = Channels.newChannel(out);
+    }
+
+    void putDirectory(String name, long time) throws IOException {
+        putRaw(name, time, new RawEntry(ZipEntry.STORED, 0, 0, ByteBuffer.allocate(0)));
+    }
+
+    void put(String name, long time, byte[] data) throws IOException {
+        checkNotFailed();
+        try {
+            putEntry(name, time, deflate(deflater, data));
+        } catch (IOException | RuntimeException exception) {
+            failed = true;
+            throw exception;
+        }
+    }
+
+    void putRaw(String name, long time, RawEntry raw) throws IOException {
+        checkNotFailed();
+        try {
+            putEntry(name, time, raw);
+        } catch (IOException | RuntimeException exception) {
+            failed = true;
+            throw exception;
+        }
+    }
+
+    private void checkNotFailed() throws ZipException {
+        if (failed)
+            throw new ZipException("Cannot add entries after adding an entry failed");
+    }
+
+    private void putEntry(String name, long time, RawEntry raw) throws IOException {
+        if (count == 0xFFFF)
+            throw new ZipException("Archives are limited to 65535 entries, as ZIP64 archives are not supported");
+        if (written > 0xFFFFFFFFL || raw.compressedSize() > 0xFFFFFFFFL || raw.size() > 0xFFFFFFFFL)
+            throw new ZipException("ZIP64 archives are not supported");
+
+        final byte[] name0 = name.getBytes(StandardCharsets.UTF_8);
+        final long dosTime = javaToDosTime(time);
+        // Times outside of the DOS range need the extended timestamp to survive, or the NTFS times past its range of 1901 to 2038
+        final boolean extended = dosTime == DOSTIME_BEFORE_1980 || dosTime == -1;
+        final boolean ntfs = extended && Math.floorDiv(time, 1000) != (int) Math.floorDiv(time, 1000);
+        final int extraLen = ntfs ? 36 : extended ? 9 : 0;
+        final int version = raw.method() == ZipEntry.DEFLATED ? 20 : 10;
+
+        final var local = ByteBuffer.allocate(LOCAL_HEADER_SIZE + name0.length + extraLen).order(ByteOrder.LITTLE_ENDIAN);
+        local.putInt(LOCAL_HEADER)
+                .putShort((short) version)
+                .putShort((short) UTF8_FLAG)
+                .putShort((short) raw.method())
+                .putInt((int) (extended ? DOSTIME_BEFORE_1980 : dosTime))
+                .putInt((int) raw.crc())
+                .putInt((int) raw.compressedSize())
+                .putInt((int) raw.size())
+                .putShort((short) name0.length)
+                .putShort((short) extraLen)
+                .put(name0);
+        putTime(local, time, extended, ntfs);
+
+        final var cen = ByteBuffer.allocate(CENTRAL_HEADER_SIZE + name0.length + extraLen).order(ByteOrder.LITTLE_ENDIAN);
+        cen.putInt(CENTRAL_HEADER)
+                .putShort((short) 20)
+                .putShort((short) version)
+                .putShort((short) UTF8_FLAG)
+                .putShort((short) raw.method())
+                .putInt((int) (extended ? DOSTIME_BEFORE_1980 : dosTime))
+                .putInt((int) raw.crc())
+                .putInt((int) raw.compressedSize())
+                .putInt((int) raw.size())
+                .putShort((short) name0.length)
+                .putShort((short) extraLen)
+                .putShort((short) 0) // Comment length
+                .putShort((short) 0) // Disk number
+                .putShort((short) 0) // Internal attributes
+                .putInt(0) // External attributes
+                .putInt((int) written)
+                .put(name0);
+        putTime(cen, time, extended, ntfs);
+        central.write(cen.array());
+
+        write(local.flip());
+        write(raw.compressed().duplicate());
+        count++;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) return;
+        closed = true;
+        deflater.end();
+        // The entries written so far may be incomplete, and without a central directory nothing reads them
+        if (failed) return;
+
+        if (written > 0xFFFFFFFFL)
+            throw new ZipException("ZIP64 archives are not supported");
+
+        final long offset = written;
+        write(ByteBuffer.wrap(central.toByteArray()));
+        final var end = ByteBuffer.allocate(END_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        end.putInt(END_HEADER)
+                .putShort((short) 0) // Disk number
+                .putShort((short) 0) // Disk with the central directory
+                .putShort((short) count)
+                .putShort((short) count)
+                .putInt(central.size())
+                .putInt((int) offset)
+                .putShort((short) 0); // Comment length
+        write(end.flip());
+        out.flush();
+    }
+
+    private void write(ByteBuffer buf) throws IOException {
+        written += buf.remaining();
+        while (buf.hasRemaining()) {
+            channel.write(buf);
+        }
+    }
+
+    static RawEntry deflate(byte[] data) {
+        final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        try {
+            return deflate(deflater, data);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Deflate the given files on the common pool, producing exactly the bytes {@link #put} would. Each worker deflates an
+     * interleaved share of the files with its own deflater, which spreads large and small files evenly.
+     */
+    static RawEntry[] deflateAll(List<byte[]> files) {
+        final RawEntry[] out = new RawEntry[files.size()];
+        final int workers = Math.min(files.size(), ForkJoinPool.getCommonPoolParallelism() * 4);
+        IntStream.range(0, workers).parallel().forEach(worker -> {
+            final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+            try {
+                for (int i = worker; i < out.length; i += workers) {
+                    out[i] = deflate(deflater, files.get(i));
+                }
+            } finally {
+                deflater.end();
+            }
+        });
+        return out;
+    }
+
+    private static RawEntry deflate(Deflater deflater, byte[] data) {
+        final CRC32 crc = new CRC32();
+        crc.update(data);
+
+        deflater.reset();
+        deflater.setInput(data);
+        deflater.finish();
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, data.length / 2));
+        final byte[] buf = new byte[8192];
+        while (!deflater.finished()) {
+            out.write(buf, 0, deflater.deflate(buf));
+        }
+        return new RawEntry(ZipEntry.DEFLATED, crc.getValue(), data.length, ByteBuffer.wrap(out.toByteArray()));
+    }
+
+    private static void putTime(ByteBuffer buf, long time, boolean extended, boolean ntfs) {
+        if (ntfs) {
+            buf.putShort((short) NTFS)
+                    .putShort((short) 32)
+                    .putInt(0) // Reserved
+                    .putShort((short) 1) // Times attribute
+                    .putShort((short) 24)
+                    .putLong((time + WINDOWS_EPOCH_OFFSET) * 10_000)
+                    .putLong(Long.MIN_VALUE) // Access time, not available
+                    .putLong(Long.MIN_VALUE); // Creation time, not available
+        } else if (extended) {
+            buf.putShort((short) EXTENDED_TIMESTAMP)
+                    .putShort((short) 5)
+                    .put((byte) 1) // Modification time present
+                    .putInt((int) Math.floorDiv(time, 1000));
+        }
+    }
+
+    /**
+     * {@return the DOS time of the given java time, {@link #DOSTIME_BEFORE_1980} if it is too early or {@code -1} if it is too late}
+     */
+    static long javaToDosTime(long time) {
+        final var date = LocalDateTime.ofInstant(Instant.ofEpochMilli(time), ZoneId.systemDefault());
+        final int year = date.getYear() - 1980;
+        if (year < 0)
+            return DOSTIME_BEFORE_1980;
+        if (year > 0x7f)
+            return -1;
+        return (long) year << 25 |
+                date.getMonthValue() << 21 |
+                date.getDayOfMonth() << 16 |
+                date.getHour() << 11 |
+                date.getMinute() << 5 |
+                date.getSecond() >> 1;
+    }
+}
@@ -0,0 +1,114 @@
+package net.neoforged.installerrewriter;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DirectoryIndexTest {
+    // The tree is dated back, so that any change made by a test changes the modification times
+    private static final FileTime PAST = FileTime.from(Instant.parse("2020-01-01T00:00:00Z"));
+
+    @Test
+    void indexesTheInstallersOfTheTree(@TempDir Path dir) throws IOException {
+        final Path root = tree(dir, "21.0.1", "21.0.2");
+        Files.writeString(root.resolve("net/neoforged/neoforge/21.0.1/neoforge-21.0.1-universal.jar"), "");
+        final Path cache = dir.resolve("cache/index.json");
+        final var index = DirectoryIndex.load(root, cache);
+        assertEquals(List.of("21.0.1", "21.0.2"), index.versions());
+        assertEquals("net/neoforged/neoforge/21.0.2/neoforge-21.0.2-installer.jar", index.path("21.0.2"));
+        assertTrue(Files.exists(cache));
+    }
+
+    @Test
+    void usesTheCacheWhileNoDirectoryChanged(@TempDir Path dir) throws IOException {
+        final Path root = tree(dir, "21.0.1");
+        final Path cache = dir.resolve("index.json");
+        DirectoryIndex.load(root, cache);
+
+        // Only the modification times are compared, so an installer added behind the index's back stays unseen
+        final Path folder = root.resolve("net/neoforged/neoforge/21.0.1");
+        Files.writeString(folder.resolve("neoforge-21.0.2-installer.jar"), "");
+        Files.setLastModifiedTime(folder, PAST);
+        assertEquals(List.of("21.0.1"), DirectoryIndex.load(root, cache).versions());
+    }
+
+    @Test
+    void rescansOnceAnInstallerIsAdded(@TempDir Path dir) throws IOException {
+        final Path root = tree(dir, "21.0.1");
+        final Path cache = dir.resolve("index.json");
+        DirectoryIndex.load(root, cache);
+
+        installer(root, "21.0.2");
+        assertEquals(List.of("21.0.1", "21.0.2"), DirectoryIndex.load(root, cache).versions());
+    }
+
+    @Test
+    void rescansOnceAnInstallerIsRemoved(@TempDir Path dir) throws IOException {
+        final Path root = tree(dir, "21.0.1", "21.0.2");
+        final Path cache = dir.resolve("index.json");
+        DirectoryIndex.load(root, cache);
+
+        Files.delete(root.resolve("net/neoforged/neoforge/21.0.2/neoforge-21.0.2-installer.jar"));
+        assertEquals(List.of("21.0.1"), DirectoryIndex.load(root, cache).versions());
+    }
+
+    @Test
+    void keepsTheCacheValidAcrossItsOwnWrites(@TempDir Path dir) throws IOException {
+        final Path root = tree(dir, "21.0.1");
+        final Path cache = dir.resolve("index.json");
+        final var index = DirectoryIndex.load(root, cache);
+
+        final Path folder = root.resolve("net/neoforged/neoforge/21.0.1");
+        Files.writeString(folder.resolve("neoforge-21.0.1-installer.jar.sha256"), "");
+        index.touch(folder);
+        index.save();
+
+        // As above, an installer added without changing the recorded time proves that the cache is used
+        final FileTime touched = Files.getLastModifiedTime(folder);
+        Files.writeString(folder.resolve("neoforge-21.0.2-installer.jar"), "");
+        Files.setLastModifiedTime(folder, touched);
+        assertEquals(List.of("21.0.1"), DirectoryIndex.load(root, cache).versions());
+    }
+
+    @Test
+    void rescansOverMalformedCaches(@TempDir Path dir) throws IOException {
+        final Path root = tree(dir, "21.0.1");
+        final Path cache = dir.resolve("index.json");
+        Files.writeString(cache, "{\"directories\": [");
+        assertEquals(List.of("21.0.1"), DirectoryIndex.load(root, cache).versions());
+    }
+
+    @Test
+    void rejectsCachesInsideTheTree(@TempDir Path dir) throws IOException {
+        final Path root = tree(dir, "21.0.1");
+        assertThrows(IllegalArgumentException.class, () -> DirectoryIndex.load(root, root.resolve("index.json")));
+    }
+
+    private static Path tree(Path dir, String... versions) throws IOException {
+        final Path root = dir.resolve("repo");
+        for (final String version : versions) {
+            installer(root, version);
+        }
+        try (var paths = Files.walk(root)) {
+            for (final Path path : paths.toList()) {
+                Files.setLastModifiedTime(path, PAST);
+            }
+        }
+        return root;
+    }
+
+    private static void installer(Path root, String version) throws IOException {
+        final Path folder = Files.createDirectories(root.resolve("net/neoforged/neoforge/" + version));
+        Files.writeString(folder.resolve("neoforge-" + version + "-installer.jar"), "");
+    }
+}
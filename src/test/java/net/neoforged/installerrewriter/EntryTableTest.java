@@ -0,0 +1,75 @@
+package net.neoforged.installerrewriter;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class EntryTableTest {
+    @Test
+    void viewsOnlyTheEntriesUnderAPrefix() {
+        final var table = table("a/", "a/b.txt", "a/c/", "a/c/d.txt", "a0.txt", "ab/", "ab/e.txt", "b.txt");
+        assertEquals(List.of("a/", "a/b.txt", "a/c/", "a/c/d.txt"), names(table.under("a/")));
+        assertEquals(List.of("a/c/", "a/c/d.txt"), names(table.under("a/c/")));
+        assertEquals(List.of("ab/", "ab/e.txt"), names(table.under("ab/")));
+        assertTrue(table.under("c/").isEmpty());
+    }
+
+    @Test
+    void viewsEverythingUnderTheEmptyPrefix() {
+        final var table = table("a/", "a/b.txt", "b.txt");
+        assertEquals(List.of("a/", "a/b.txt", "b.txt"), names(table.under("")));
+    }
+
+    @Test
+    void viewsPrefixesEndingWithTheLastCharacter() {
+        final String last = String.valueOf(Character.MAX_VALUE);
+        final var table = table("a", "a" + last, "a" + last + last + "x", "b", last, last + "x");
+        assertEquals(List.of("a" + last, "a" + last + last + "x"), names(table.under("a" + last)));
+        assertEquals(List.of("a" + last + last + "x"), names(table.under("a" + last + last)));
+        assertEquals(List.of(last, last + "x"), names(table.under(last)));
+    }
+
+    @Test
+    void removesThroughTheView() {
+        final var table = table("a/", "a/b.txt", "a/c/d.txt", "b.txt");
+        table.under("a/").clear();
+        assertEquals(List.of("b.txt"), names(table));
+        assertFalse(table.under("a/").iterator().hasNext());
+    }
+
+    @Test
+    void seesEntriesAddedAfterTheView() {
+        final var table = table("a/");
+        final var view = table.under("a/");
+        table.getOrCreate("a/b.txt", 0);
+        table.getOrCreate("b.txt", 0);
+        assertEquals(List.of("a/", "a/b.txt"), names(view));
+    }
+
+    @Test
+    void flagsDirectories() {
+        final var table = table("a/", "a/b.txt");
+        assertTrue(table.get("a/").isDirectory());
+        assertFalse(table.get("a/b.txt").isDirectory());
+        assertFalse(table.get("a/b.txt").isFile());
+    }
+
+    private static EntryTable table(String... names) {
+        final var table = new EntryTable();
+        for (final String name : names) {
+            table.getOrCreate(name, 0);
+        }
+        return table;
+    }
+
+    private static List<String> names(Iterable<EntryTable.Entry> entries) {
+        final List<String> names = new ArrayList<>();
+        entries.forEach(entry -> names.add(entry.name));
+        return names;
+    }
+}
@@ -0,0 +1,213 @@
+package net.neoforged.installerrewriter;
+
+import com.google.common.hash.Hashing;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.jar.JarOutputStream;
+import java.util.zip.ZipEntry;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class JarContentsTest {
+    private static final long TIME = 1_700_000_000_000L;
+
+    @Test
+    void loadsUnchanged() throws IOException {
+        final var jar = load(Map.of("a.txt", "a", "b/c.txt", "c"));
+        assertFalse(jar.changed());
+        assertTrue(jar.changes().isEmpty());
+    }
+
+    @Test
+    void tracksAddedModifiedAndDeletedFiles() throws IOException {
+        final var jar = load(Map.of("a.txt", "a", "b.txt", "b", "c.txt", "c"));
+        jar.write("a.txt", bytes("changed"));
+        jar.delete("b.txt");
+        jar.write("d.txt", bytes("d"));
+        assertTrue(jar.changed());
+        assertEquals(new JarContents.Changes(List.of("d.txt"), List.of("a.txt"), List.of("b.txt")), jar.changes());
+    }
+
+    @Test
+    void forgetsFilesAddedAndDeletedAgain() throws IOException {
+        final var jar = load(Map.of("a.txt", "a"));
+        jar.write("b.txt", bytes("b"));
+        assertTrue(jar.delete("b.txt"));
+        assertTrue(jar.changes().isEmpty());
+    }
+
+    @Test
+    void tracksFilesDeletedAndAddedBackAsModified() throws IOException {
+        final var jar = load(Map.of("a.txt", "a"));
+        jar.delete("a.txt");
+        jar.write("a.txt", bytes("a"));
+        assertEquals(new JarContents.Changes(List.of(), List.of("a.txt"), List.of()), jar.changes());
+    }
+
+    @Test
+    void tracksChangedTimesOfFilesOnly() throws IOException {
+        final var jar = load(Map.of("a/b.txt", "b"));
+        jar.setTime("a/", TIME + 2000);
+        assertFalse(jar.changed());
+        jar.setTime("a/b.txt", TIME + 2000);
+        assertTrue(jar.changed());
+        assertEquals(List.of("a/b.txt"), jar.changes().modified());
+    }
+
+    @Test
+    void deletesOnlyTheFilesOfFolders() throws IOException {
+        final var jar = load(Map.of("a/b.txt", "b", "a/c/d.txt", "d", "ab.txt", "ab"));
+        jar.deleteFolder("a");
+        assertEquals(List.of("a/b.txt", "a/c/d.txt"), jar.changes().deleted());
+        assertTrue(jar.contains("ab.txt"));
+        // The directories keep their time for files added back
+        assertEquals(TIME, jar.getTime("a/"));
+    }
+
+    @Test
+    void copiesTheContentsOfFiles() throws IOException {
+        final var jar = load(Map.of("a.txt", "a"));
+        jar.getBytes("a.txt")[0] = 'b';
+        assertArrayEquals(bytes("a"), jar.getBytes("a.txt"));
+        assertFalse(jar.changed());
+    }
+
+    @Test
+    void mergesFilesAndDirectories() throws IOException {
+        final var jar = load(Map.of("a.txt", "a", "b/c.txt", "c"));
+        jar.merge(load(Map.of("a.txt", "new a", "d/e.txt", "e")), false);
+        assertArrayEquals(bytes("a"), jar.getBytes("a.txt"));
+        assertArrayEquals(bytes("e"), jar.getBytes("d/e.txt"));
+        assertEquals(TIME, jar.getTime("d/"));
+
+        jar.merge(load(Map.of("a.txt", "new a")), true);
+        assertArrayEquals(bytes("new a"), jar.getBytes("a.txt"));
+        assertEquals(new JarContents.Changes(List.of("d/e.txt"), List.of("a.txt"), List.of()), jar.changes());
+    }
+
+    @Test
+    void keepsMergedFilesWhenTheOtherJarChanges() throws IOException {
+        final var other = load(Map.of("a.txt", "a", "b.txt", "b"));
+        other.precompress();
+        final var first = load(Map.of());
+        final var second = load(Map.of());
+        first.merge(other, true);
+        second.merge(other, true);
+        other.write("a.txt", bytes("changed"));
+        other.delete("b.txt");
+
+        for (final var jar : List.of(first, second)) {
+            final var copy = JarContents.loadJar(new ByteArrayInputStream(write(jar)));
+            assertArrayEquals(bytes("a"), copy.getBytes("a.txt"));
+            assertArrayEquals(bytes("b"), copy.getBytes("b.txt"));
+        }
+    }
+
+    @Test
+    void keepsMergedFilesOfClearedOffHeapJars() throws IOException {
+        final byte[] archive = jar(Map.of("a.txt", "a".repeat(1000), "b.txt", "b".repeat(1000)));
+        final var other = JarContents.loadJar(new ByteArrayInputStream(archive), archive.length, PayloadStore.offHeap().get());
+        // One file is inflated into the store of the other jar, while the other is only held in the archive
+        other.getBytes("a.txt");
+        final var jar = load(Map.of());
+        jar.merge(other, true);
+        other.clear();
+
+        assertArrayEquals(bytes("a".repeat(1000)), jar.getBytes("a.txt"));
+        final var copy = JarContents.loadJar(new ByteArrayInputStream(write(jar)));
+        assertArrayEquals(bytes("a".repeat(1000)), copy.getBytes("a.txt"));
+        assertArrayEquals(bytes("b".repeat(1000)), copy.getBytes("b.txt"));
+    }
+
+    @Test
+    void checksTheDigestsOfTouchedFilesOnly() throws IOException {
+        // The digest of b.txt doesn't match, but it is never checked as the file is not touched
+        final var jar = signed();
+        jar.write("c.txt", bytes("c"));
+        final var copy = JarContents.loadJar(new ByteArrayInputStream(write(jar)));
+        assertTrue(copy.contains("META-INF/TEST.SF"));
+        assertTrue(copy.getText(JarContents.MANIFEST).contains("Digest"));
+    }
+
+    @Test
+    void keepsSignaturesWhileTouchedFilesMatch() throws IOException {
+        final var jar = signed();
+        jar.write("a.txt", bytes("a"));
+        final var copy = JarContents.loadJar(new ByteArrayInputStream(write(jar)));
+        assertTrue(copy.contains("META-INF/TEST.SF"));
+    }
+
+    @Test
+    void stripsSignaturesOnceTouchedFilesDontMatch() throws IOException {
+        final var jar = signed();
+        jar.write("a.txt", bytes("changed"));
+        final var copy = JarContents.loadJar(new ByteArrayInputStream(write(jar)));
+        assertFalse(copy.contains("META-INF/TEST.SF"));
+        assertFalse(copy.getText(JarContents.MANIFEST).contains("Digest"));
+        assertTrue(copy.contains("b.txt"));
+    }
+
+    /**
+     * {@return a jar whose manifest holds the digest of a.txt, and a wrong digest of b.txt}
+     */
+    private static JarContents signed() throws IOException {
+        final String manifest = "Manifest-Version: 1.0\r\n\r\n" +
+                "Name: a.txt\r\nSHA-256-Digest: " + Base64.getEncoder().encodeToString(Hashing.sha256().hashBytes(bytes("a")).asBytes()) + "\r\n\r\n" +
+                "Name: b.txt\r\nSHA-256-Digest: " + Base64.getEncoder().encodeToString(Hashing.sha256().hashBytes(bytes("wrong")).asBytes()) + "\r\n\r\n";
+        return load(Map.of(JarContents.MANIFEST, manifest, "META-INF/TEST.SF", "signature", "a.txt", "a", "b.txt", "b"));
+    }
+
+    private static byte[] write(JarContents jar) throws IOException {
+        final var out = new ByteArrayOutputStream();
+        jar.writeTo(out);
+        return out.toByteArray();
+    }
+
+    private static JarContents load(Map<String, String> files) throws IOException {
+        return JarContents.loadJar(new ByteArrayInputStream(jar(files)));
+    }
+
+    /**
+     * {@return a jar of the given files in name order, with the directories holding them}
+     */
+    private static byte[] jar(Map<String, String> files) throws IOException {
+        final var out = new ByteArrayOutputStream();
+        try (var jar = new JarOutputStream(out)) {
+            final Set<String> directories = new HashSet<>();
+            for (final var file : new TreeMap<>(files).entrySet()) {
+                for (int i = file.getKey().indexOf('/'); i >= 0; i = file.getKey().indexOf('/', i + 1)) {
+                    final String directory = file.getKey().substring(0, i + 1);
+                    if (directories.add(directory))
+                        put(jar, directory, new byte[0]);
+                }
+                put(jar, file.getKey(), bytes(file.getValue()));
+            }
+        }
+        return out.toByteArray();
+    }
+
+    private static void put(JarOutputStream jar, String name, byte[] data) throws IOException {
+        final var entry = new ZipEntry(name);
+        entry.setTime(TIME);
+        jar.putNextEntry(entry);
+        jar.write(data);
+        jar.closeEntry();
+    }
+
+    private static byte[] bytes(String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,72 @@
+package net.neoforged.installerrewriter;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class JournalTest {
+    @Test
+    void resumesTheVersionsDoneByAnEarlierRun(@TempDir Path dir) throws IOException {
+        final Path path = dir.resolve("runs/journal.tsv");
+        try (var journal = Journal.open(path)) {
+            journal.record("1.0", Journal.Status.STARTED, "chain", "in", null);
+            journal.record("1.0", Journal.Status.UPLOADED, "chain", "in", "out");
+            journal.record("1.1", Journal.Status.UNCHANGED, "chain", "in", null);
+            journal.record("1.2", Journal.Status.STARTED, "chain", "in", null);
+            journal.record("1.3", Journal.Status.UPLOADED, "chain", "in", "out");
+            journal.record("1.3", Journal.Status.FAILED, "chain", "in", null);
+        }
+
+        try (var journal = Journal.open(path)) {
+            assertTrue(journal.isDone("1.0", "chain"));
+            assertTrue(journal.isDone("1.1", "chain"));
+            // Started versions may not have been uploaded, and the last record of a version wins
+            assertFalse(journal.isDone("1.2", "chain"));
+            assertFalse(journal.isDone("1.3", "chain"));
+            assertFalse(journal.isDone("1.4", "chain"));
+            // A different rewrite chain has to process the versions again
+            assertFalse(journal.isDone("1.0", "other chain"));
+
+            assertEquals(new Journal.Entry("1.0", Journal.Status.UPLOADED, "chain", "in", "out"), journal.get("1.0"));
+            assertNull(journal.get("1.1").output());
+        }
+    }
+
+    @Test
+    void skipsLinesCutOffByACrash(@TempDir Path dir) throws IOException {
+        final Path path = dir.resolve("journal.tsv");
+        try (var journal = Journal.open(path)) {
+            journal.record("1.0", Journal.Status.UPLOADED, "chain", "in", "out");
+        }
+        Files.writeString(path, "1.1\tUPLOADED\tch", StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+
+        try (var journal = Journal.open(path)) {
+            assertNull(journal.get("1.1"));
+            journal.record("1.2", Journal.Status.UNCHANGED, "chain", "in", null);
+        }
+        try (var journal = Journal.open(path)) {
+            assertTrue(journal.isDone("1.0", "chain"));
+            assertNull(journal.get("1.1"));
+            assertTrue(journal.isDone("1.2", "chain"));
+        }
+    }
+
+    @Test
+    void skipsUnknownStatuses(@TempDir Path dir) throws IOException {
+        final Path path = dir.resolve("journal.tsv");
+        Files.writeString(path, "1.0\tUPLOADED\tchain\tin\tout\n1.0\tSKIPPED\tchain\t-\t-\n", StandardCharsets.UTF_8);
+        try (var journal = Journal.open(path)) {
+            assertTrue(journal.isDone("1.0", "chain"));
+        }
+    }
+}
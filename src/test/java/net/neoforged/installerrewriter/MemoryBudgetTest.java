@@ -0,0 +1,101 @@
+package net.neoforged.installerrewriter;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MemoryBudgetTest {
+    @Test
+    void admitsReservationsWithinTheCapacity() throws InterruptedException {
+        final var budget = new MemoryBudget(100);
+        budget.acquire(60);
+        budget.acquire(40);
+        assertBlocks(budget, 1);
+        assertThrows(IllegalArgumentException.class, () -> new MemoryBudget(0));
+    }
+
+    @Test
+    void blocksUntilEnoughIsReleased() throws InterruptedException {
+        final var budget = new MemoryBudget(100);
+        final var first = budget.acquire(60);
+        final var second = budget.acquire(30);
+        final Thread waiting = acquireLater(budget, 50);
+        second.close();
+        assertBlocked(waiting);
+        first.close();
+        assertAdmitted(waiting);
+    }
+
+    @Test
+    void admitsOversizedReservationsAlone() throws InterruptedException {
+        final var budget = new MemoryBudget(100);
+        final var small = budget.acquire(10);
+        final Thread oversized = acquireLater(budget, 500);
+        assertBlocked(oversized);
+        small.close();
+        assertAdmitted(oversized);
+        assertBlocks(budget, 1);
+    }
+
+    @Test
+    void reservesADefaultForUnknownSizes() throws InterruptedException {
+        final var budget = new MemoryBudget(MemoryBudget.UNKNOWN_SIZE + 10);
+        budget.acquire(-1);
+        budget.acquire(10);
+        assertBlocks(budget, 1);
+    }
+
+    @Test
+    void releasesReservationsOnce() throws InterruptedException {
+        final var budget = new MemoryBudget(100);
+        final var reservation = budget.acquire(60);
+        reservation.close();
+        reservation.close();
+        budget.acquire(60);
+        assertBlocks(budget, 60);
+    }
+
+    @Test
+    void releasesReservationsHeldByClearedJars() throws Exception {
+        final var budget = new MemoryBudget(100);
+        final var archive = new ByteArrayOutputStream();
+        new ZipWriter(archive).close();
+        final var jar = JarContents.loadJar(new ByteArrayInputStream(archive.toByteArray()));
+        jar.hold(budget.acquire(100));
+        final Thread waiting = acquireLater(budget, 1);
+        assertBlocked(waiting);
+        jar.clear();
+        assertAdmitted(waiting);
+    }
+
+    private static void assertBlocks(MemoryBudget budget, long bytes) throws InterruptedException {
+        final Thread waiting = acquireLater(budget, bytes);
+        assertBlocked(waiting);
+        waiting.interrupt();
+    }
+
+    private static Thread acquireLater(MemoryBudget budget, long bytes) {
+        return Thread.ofVirtual().start(() -> {
+            try {
+                budget.acquire(bytes);
+            } catch (InterruptedException ignored) {
+            }
+        });
+    }
+
+    private static void assertBlocked(Thread waiting) throws InterruptedException {
+        waiting.join(Duration.ofMillis(100));
+        assertTrue(waiting.isAlive(), "the reservation was admitted");
+    }
+
+    private static void assertAdmitted(Thread waiting) throws InterruptedException {
+        waiting.join(Duration.ofSeconds(10));
+        assertFalse(waiting.isAlive(), "the reservation was not admitted");
+    }
+}
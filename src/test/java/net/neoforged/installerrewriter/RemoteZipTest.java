@@ -0,0 +1,163 @@
+package net.neoforged.installerrewriter;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.junit.jupiter.api.Test;
+
+import javax.net.ssl.SSLSession;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Random;
+import java.util.jar.Attributes;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RemoteZipTest {
+    @Test
+    void readsTheManifestWithTwoRequests() throws IOException {
+        final var server = new Server(jar(10, 0));
+        final var manifest = new RemoteZip(server).readManifest();
+        assertEquals("net.neoforged.Main", manifest.getMainAttributes().getValue(Attributes.Name.MAIN_CLASS));
+        // The tail holds the whole central directory of small archives
+        assertEquals(2, server.ranges.size());
+    }
+
+    @Test
+    void fetchesLargeCentralDirectoriesSeparately() throws IOException {
+        final byte[] archive = jar(3000, 1024);
+        final var server = new Server(archive);
+        assertArrayEquals(content(2999, 1024), new RemoteZip(server).read(name(2999)));
+        assertEquals(3, server.ranges.size());
+        // Only the end of the archive and the entry itself are fetched, not the other entries
+        assertTrue(server.served < archive.length / 4, server.served + " of " + archive.length + " bytes were fetched");
+    }
+
+    @Test
+    void refetchesEntriesWithLongLocalHeaders() throws IOException {
+        final var out = new ByteArrayOutputStream();
+        try (var jar = new JarOutputStream(out)) {
+            final var entry = new ZipEntry("long.txt");
+            // An unknown extra field, longer than the margin fetched after the data
+            final var extra = ByteBuffer.allocate(1000).order(ByteOrder.LITTLE_ENDIAN).putShort((short) 0x4242).putShort((short) 996);
+            entry.setExtra(extra.array());
+            jar.putNextEntry(entry);
+            jar.write(content(0, 100));
+        }
+        final var server = new Server(out.toByteArray());
+        assertArrayEquals(content(0, 100), new RemoteZip(server).read("long.txt"));
+        assertEquals(3, server.ranges.size());
+    }
+
+    @Test
+    void givesUpWhenRangesAreIgnored() throws IOException {
+        final var server = new Server(jar(10, 0));
+        server.ignoreRanges = true;
+        assertNull(new RemoteZip(server).readManifest());
+        assertEquals(1, server.ranges.size());
+    }
+
+    @Test
+    void returnsNullForMissingEntries() throws IOException {
+        assertNull(new RemoteZip(new Server(jar(10, 0))).read("missing.txt"));
+    }
+
+    /**
+     * {@return a jar with a manifest and the given amount of files of random contents of the given size}
+     */
+    private static byte[] jar(int files, int size) throws IOException {
+        final var manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        manifest.getMainAttributes().put(Attributes.Name.MAIN_CLASS, "net.neoforged.Main");
+        final var out = new ByteArrayOutputStream();
+        try (var jar = new JarOutputStream(out, manifest)) {
+            for (int i = 0; i < files; i++) {
+                jar.putNextEntry(new ZipEntry(name(i)));
+                jar.write(content(i, size));
+            }
+        }
+        return out.toByteArray();
+    }
+
+    private static String name(int file) {
+        return "net/neoforged/installer/generated/File" + file + ".class";
+    }
+
+    private static byte[] content(int file, int size) {
+        final byte[] content = new byte[size];
+        new Random(file).nextBytes(content);
+        return content;
+    }
+
+    /**
+     * Serves the ranges of an archive like a repository supporting range requests, answering with {@link Response}s
+     * just like {@link RemoteZip.Fetcher#handler()}, which cancels the body of full responses.
+     */
+    private static final class Server implements RemoteZip.Fetcher {
+        private final byte[] archive;
+        private final List<String> ranges = new ArrayList<>();
+        private long served;
+        private boolean ignoreRanges;
+
+        private Server(byte[] archive) {
+            this.archive = archive;
+        }
+
+        @Override
+        public HttpResponse<byte @Nullable []> fetch(String range) {
+            ranges.add(range);
+            if (ignoreRanges)
+                return new Response(200, HttpHeaders.of(Map.of(), (name, value) -> true), null);
+
+            final String[] bounds = range.substring("bytes=".length()).split("-", -1);
+            final int start = bounds[0].isEmpty() ? Math.max(0, archive.length - Integer.parseInt(bounds[1])) : Integer.parseInt(bounds[0]);
+            final int end = bounds[0].isEmpty() ? archive.length - 1 : Math.min(archive.length - 1, Integer.parseInt(bounds[1]));
+            served += end - start + 1;
+            final var headers = HttpHeaders.of(Map.of("Content-Range", List.of("bytes " + start + "-" + end + "/" + archive.length)), (name, value) -> true);
+            return new Response(206, headers, Arrays.copyOfRange(archive, start, end + 1));
+        }
+    }
+
+    private record Response(int statusCode, HttpHeaders headers, byte @Nullable [] body) implements HttpResponse<byte @Nullable []> {
+        @Override
+        public HttpRequest request() {
+            return HttpRequest.newBuilder(uri()).build();
+        }
+
+        @Override
+        public Optional<HttpResponse<byte @Nullable []>> previousResponse() {
+            return Optional.empty();
+        }
+
+        @Override
+        public Optional<SSLSession> sslSession() {
+            return Optional.empty();
+        }
+
+        @Override
+        public URI uri() {
+            return URI.create("https://maven.neoforged.net/releases/installer.jar");
+        }
+
+        @Override
+        public HttpClient.Version version() {
+            return HttpClient.Version.HTTP_2;
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package net.neoforged.installerrewriter;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ShardTest {
+    private static final List<String> VERSIONS = IntStream.range(0, 500).mapToObj(i -> "21.0." + i).toList();
+
+    @Test
+    void splitsTheVersionsBetweenTheShards() {
+        final Map<String, Long> sizes = new LinkedHashMap<>();
+        // Only some of the sizes are known, the other versions are assigned by their hash
+        for (int i = 0; i < VERSIONS.size(); i += 3) {
+            sizes.put(VERSIONS.get(i), 1000L + i);
+        }
+        for (final var known : List.of(Map.<String, Long>of(), sizes)) {
+            final List<String> all = new ArrayList<>();
+            final Set<String> distinct = new HashSet<>();
+            for (int index = 0; index < 4; index++) {
+                final var selected = new Shard(index, 4).select(VERSIONS, known);
+                assertTrue(selected.size() > 0);
+                // The shards keep the order of the versions
+                assertEquals(VERSIONS.stream().filter(selected::contains).toList(), selected);
+                all.addAll(selected);
+                distinct.addAll(selected);
+            }
+            assertEquals(VERSIONS.size(), all.size());
+            assertEquals(Set.copyOf(VERSIONS), distinct);
+        }
+    }
+
+    @Test
+    void keepsVersionsOnTheirShardWhenOthersArePublished() {
+        final List<String> published = new ArrayList<>(VERSIONS);
+        published.addAll(List.of("21.1.0", "21.1.1", "21.1.2"));
+        for (int index = 0; index < 3; index++) {
+            final var shard = new Shard(index, 3);
+            final var selected = shard.select(published, Map.of());
+            assertEquals(shard.select(VERSIONS, Map.of()), selected.stream().filter(VERSIONS::contains).toList());
+        }
+    }
+
+    @Test
+    void balancesTheShardsBySize() {
+        final Map<String, Long> sizes = new LinkedHashMap<>();
+        for (int i = 0; i < VERSIONS.size(); i++) {
+            // A few large installers among many small ones
+            sizes.put(VERSIONS.get(i), i % 50 == 0 ? 50_000_000L : 1_000_000L + i * 1000L);
+        }
+        final long total = sizes.values().stream().mapToLong(Long::longValue).sum();
+        final long largest = sizes.values().stream().mapToLong(Long::longValue).max().orElseThrow();
+        for (int index = 0; index < 4; index++) {
+            final long load = new Shard(index, 4).select(VERSIONS, sizes).stream().mapToLong(sizes::get).sum();
+            assertTrue(Math.abs(load - total / 4) <= largest, "shard " + index + " has " + load + " of " + total + " bytes");
+        }
+    }
+
+    @Test
+    void breaksTiesByName() {
+        final Map<String, Long> sizes = Map.of("a", 10L, "b", 10L, "c", 10L, "d", 10L);
+        final List<String> versions = List.of("d", "c", "b", "a");
+        assertEquals(List.of("c", "a"), new Shard(0, 2).select(versions, sizes));
+        assertEquals(List.of("d", "b"), new Shard(1, 2).select(versions, sizes));
+    }
+
+    @Test
+    void selectsEverythingWithASingleShard() {
+        assertEquals(VERSIONS, Shard.ALL.select(VERSIONS, Map.of()));
+        assertThrows(IllegalArgumentException.class, () -> new Shard(2, 2));
+        assertThrows(IllegalArgumentException.class, () -> new Shard(-1, 2));
+        assertThrows(IllegalArgumentException.class, () -> new Shard(0, 0));
+    }
+
+    @Test
+    void readsTheSizesItWrote(@TempDir Path dir) throws IOException {
+        final Path path = dir.resolve("sizes/sizes.tsv");
+        final Map<String, Long> sizes = new LinkedHashMap<>();
+        sizes.put("21.0.1", 123L);
+        sizes.put("21.0.2", 4_000_000_000L);
+        Shard.writeSizes(path, sizes);
+        Files.writeString(path, "21.0.3\tunknown\nmalformed\n", StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+        assertEquals(sizes, Shard.readSizes(path));
+    }
+}
@@ -0,0 +1,119 @@
+package net.neoforged.installerrewriter;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class StageTest {
+    private static final RetryPolicy RETRIES = new RetryPolicy(3, Duration.ofMillis(1), Duration.ofMillis(10));
+
+    @Test
+    void processesEveryItem() throws InterruptedException {
+        final var handled = new AtomicInteger();
+        final var stage = new Stage<Integer>("test", 4, 2, Thread.ofVirtual().factory(), RETRIES, item -> handled.incrementAndGet(), item -> {
+        });
+        for (int i = 0; i < 100; i++) {
+            stage.submit(i);
+        }
+        assertEquals(0, stage.finish());
+        assertEquals(100, handled.get());
+        assertTrue(stage.maxDepth() <= 2);
+    }
+
+    @Test
+    void retriesRetryableFailures() throws InterruptedException {
+        final Map<Integer, AtomicInteger> attempts = new ConcurrentHashMap<>();
+        final List<Integer> discarded = new CopyOnWriteArrayList<>();
+        final var stage = new Stage<Integer>("test", 2, 2, Thread.ofVirtual().factory(), RETRIES, item -> {
+            if (attempts.computeIfAbsent(item, i -> new AtomicInteger()).incrementAndGet() < 3)
+                throw new RetryableException("overloaded", (Duration) null);
+        }, discarded::add);
+        for (int i = 0; i < 10; i++) {
+            stage.submit(i);
+        }
+        // Finishing waits for the items waiting to be retried
+        assertEquals(0, stage.finish());
+        assertTrue(discarded.isEmpty());
+        attempts.values().forEach(count -> assertEquals(3, count.get()));
+    }
+
+    @Test
+    void discardsItemsOutOfAttempts() throws InterruptedException {
+        final var attempts = new AtomicInteger();
+        final List<String> discarded = new CopyOnWriteArrayList<>();
+        final var stage = new Stage<String>("test", 1, 1, Thread.ofVirtual().factory(), RETRIES, item -> {
+            attempts.incrementAndGet();
+            // Retryable failures may be wrapped by the handler
+            throw new RuntimeException(new RetryableException("overloaded", (Duration) null));
+        }, discarded::add);
+        stage.submit("item");
+        assertEquals(1, stage.finish());
+        assertEquals(RETRIES.maxAttempts(), attempts.get());
+        assertEquals(List.of("item"), discarded);
+    }
+
+    @Test
+    void discardsOtherFailuresRightAway() throws InterruptedException {
+        final var attempts = new AtomicInteger();
+        final List<String> discarded = new CopyOnWriteArrayList<>();
+        final var stage = new Stage<String>("test", 1, 1, Thread.ofVirtual().factory(), RETRIES, item -> {
+            attempts.incrementAndGet();
+            throw new IOException("not found");
+        }, discarded::add);
+        stage.submit("item");
+        assertEquals(1, stage.finish());
+        assertEquals(1, attempts.get());
+        assertEquals(List.of("item"), discarded);
+    }
+
+    @Test
+    void forgetsItemsWhoseSubmissionWasInterrupted() throws InterruptedException {
+        final var release = new CountDownLatch(1);
+        final List<String> handled = new CopyOnWriteArrayList<>();
+        final var stage = new Stage<String>("test", 1, 1, Thread.ofVirtual().factory(), RetryPolicy.NONE, item -> {
+            release.await();
+            handled.add(item);
+        }, item -> {
+        });
+        // The worker holds the first item and the second one fills the queue, so the third one has to wait
+        stage.submit("first");
+        stage.submit("second");
+        final var interrupted = new AtomicInteger();
+        final Thread submitter = Thread.ofVirtual().start(() -> {
+            try {
+                stage.submit("third");
+            } catch (InterruptedException exception) {
+                interrupted.incrementAndGet();
+            }
+        });
+        while (submitter.getState() != Thread.State.WAITING)
+            Thread.onSpinWait();
+        submitter.interrupt();
+        submitter.join();
+        assertEquals(1, interrupted.get());
+
+        release.countDown();
+        final var failures = new AtomicInteger(-1);
+        final Thread finisher = Thread.ofVirtual().start(() -> {
+            try {
+                failures.set(stage.finish());
+            } catch (InterruptedException ignored) {
+            }
+        });
+        finisher.join(Duration.ofSeconds(10));
+        assertFalse(finisher.isAlive(), "finish waited for the interrupted item");
+        assertEquals(0, failures.get());
+        assertEquals(List.of("first", "second"), handled);
+    }
+}
@@ -0,0 +1,135 @@
+package net.neoforged.installerrewriter;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TransferLimitTest {
+    @Test
+    void doublesEveryRoundUntilTheUpperBound() throws InterruptedException {
+        final var limit = TransferLimit.adaptive(2, 10);
+        assertEquals(2, limit.current());
+        succeedRound(limit);
+        assertEquals(4, limit.current());
+        succeedRound(limit);
+        assertEquals(8, limit.current());
+        succeedRound(limit);
+        assertEquals(10, limit.current());
+        assertEquals(10, limit.highest());
+    }
+
+    @Test
+    void halvesOnOverloadAndThenGrowsLinearly() throws InterruptedException {
+        final var limit = TransferLimit.adaptive(1, 100);
+        succeedRound(limit);
+        succeedRound(limit);
+        succeedRound(limit);
+        assertEquals(8, limit.current());
+
+        limit.acquire().failed(true);
+        assertEquals(4, limit.current());
+        // Each transfer grows the limit by one over the limit, which adds up to a little less than one per round
+        succeedRound(limit);
+        assertEquals(4, limit.current());
+        succeedRound(limit);
+        assertEquals(5, limit.current());
+        assertEquals(1, limit.lowest());
+        assertEquals(8, limit.highest());
+    }
+
+    @Test
+    void cutsOnlyOncePerRound() throws InterruptedException {
+        final var limit = TransferLimit.adaptive(1, 100);
+        succeedRound(limit);
+        succeedRound(limit);
+        succeedRound(limit);
+        final List<TransferLimit.Permit> round = acquire(limit, 8);
+        // The transfers started before the first cut reflect the load before it
+        for (final var permit : round) {
+            permit.failed(true);
+        }
+        assertEquals(4, limit.current());
+
+        limit.acquire().failed(true);
+        assertEquals(2, limit.current());
+    }
+
+    @Test
+    void ignoresFailuresNotCausedByTheLoad() throws InterruptedException {
+        final var limit = TransferLimit.adaptive(4, 10);
+        limit.acquire().failed(false);
+        try (var ignored = limit.acquire()) {
+            // Transfers without an outcome are ignored as well
+        }
+        assertEquals(4, limit.current());
+        assertEquals(0, limit.inFlight());
+    }
+
+    @Test
+    void treatsLatencySpikesAsOverload() throws InterruptedException {
+        final var limit = TransferLimit.adaptive(1, 100);
+        succeedRound(limit);
+        succeedRound(limit);
+        assertEquals(4, limit.current());
+        limit.acquire().succeeded(100_000_000);
+
+        final var slow = limit.acquire();
+        Thread.sleep(50);
+        slow.succeeded(1);
+        assertEquals(2, limit.current());
+    }
+
+    @Test
+    void staysWithinTheBounds() throws InterruptedException {
+        final var limit = TransferLimit.fixed(3);
+        succeedRound(limit);
+        assertEquals(3, limit.current());
+        limit.acquire().failed(true);
+        assertEquals(3, limit.current());
+        assertThrows(IllegalArgumentException.class, () -> TransferLimit.adaptive(0, 1));
+        assertThrows(IllegalArgumentException.class, () -> TransferLimit.adaptive(2, 1));
+    }
+
+    @Test
+    void blocksTransfersPastTheLimit() throws InterruptedException {
+        final var limit = TransferLimit.fixed(1);
+        final var permit = limit.acquire();
+        final Thread waiting = Thread.ofVirtual().start(() -> {
+            try {
+                limit.acquire().close();
+            } catch (InterruptedException ignored) {
+            }
+        });
+        waiting.join(Duration.ofMillis(100));
+        assertTrue(waiting.isAlive());
+
+        permit.succeeded(0);
+        waiting.join(Duration.ofSeconds(10));
+        assertFalse(waiting.isAlive());
+        assertEquals(0, limit.inFlight());
+    }
+
+    /**
+     * Run a full round of transfers at the current limit, all succeeding.
+     */
+    private static void succeedRound(TransferLimit limit) throws InterruptedException {
+        for (final var permit : acquire(limit, limit.current())) {
+            permit.succeeded(0);
+        }
+    }
+
+    private static List<TransferLimit.Permit> acquire(TransferLimit limit, int count) throws InterruptedException {
+        final List<TransferLimit.Permit> permits = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            permits.add(limit.acquire());
+        }
+        return permits;
+    }
+}
@@ -0,0 +1,391 @@
+package net.neoforged.installerrewriter;
+
+import jdk.security.jarsigner.JarSigner;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.security.cert.CertificateFactory;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ZipCodecTest {
+    // DOS times have a two second precision, and only cover 1980 to 2107. Past 2038, the extended timestamp can't hold them either
+    private static final long IN_RANGE = Instant.parse("2024-03-10T08:30:42Z").toEpochMilli();
+    private static final long BEFORE_1980 = Instant.parse("1975-06-01T12:00:01Z").toEpochMilli();
+    private static final long AFTER_2107 = Instant.parse("2150-06-01T12:00:01Z").toEpochMilli();
+
+    @Test
+    void roundTripsUnsignedJars() throws IOException {
+        final byte[] copy = roundTrip(jar());
+        try (var zip = new ZipInputStream(new ByteArrayInputStream(copy))) {
+            assertEquals(JarFile.MANIFEST_NAME, zip.getNextEntry().getName());
+        }
+    }
+
+    @Test
+    void keepsSignaturesValid(@TempDir Path dir) throws Exception {
+        final Path copy = dir.resolve("copy.jar");
+        Files.write(copy, roundTrip(sign(jar(), dir)));
+
+        try (var jar = new JarFile(copy.toFile(), true)) {
+            int signed = 0;
+            for (final var entry : Collections.list(jar.entries())) {
+                // Reading an entry checks its digest against the signature, and fails if they don't match
+                try (var stream = jar.getInputStream(entry)) {
+                    stream.readAllBytes();
+                }
+                if (entry.isDirectory() || entry.getName().startsWith("META-INF/"))
+                    continue;
+                assertNotNull(entry.getCodeSigners(), entry.getName());
+                signed++;
+            }
+            assertTrue(signed > 0, "No signed entries");
+        }
+    }
+
+    @Test
+    void keepsDirectories() throws IOException {
+        final var out = new ByteArrayOutputStream();
+        try (var writer = new ZipWriter(out)) {
+            writer.putDirectory("a/", IN_RANGE);
+            writer.putDirectory("a/b/", IN_RANGE);
+            writer.put("a/b/c.txt", IN_RANGE, "c".getBytes(StandardCharsets.UTF_8));
+        }
+
+        final var entries = ZipReader.read(ByteBuffer.wrap(roundTrip(out.toByteArray())));
+        assertEquals(List.of("a/", "a/b/", "a/b/c.txt"), entries.stream().map(ZipReader.Entry::name).toList());
+        assertTrue(entries.get(0).isDirectory());
+        assertTrue(entries.get(1).isDirectory());
+        assertFalse(entries.get(2).isDirectory());
+        assertEquals(0, entries.get(0).raw().size());
+        try (var zip = new ZipInputStream(new ByteArrayInputStream(out.toByteArray()))) {
+            assertTrue(zip.getNextEntry().isDirectory());
+        }
+    }
+
+    @Test
+    void keepsEmptyEntries() throws IOException {
+        final var out = new ByteArrayOutputStream();
+        try (var zip = new ZipOutputStream(out)) {
+            final var stored = new ZipEntry("stored.txt");
+            stored.setMethod(ZipEntry.STORED);
+            stored.setSize(0);
+            stored.setCrc(0);
+            zip.putNextEntry(stored);
+            zip.putNextEntry(new ZipEntry("deflated.txt"));
+        }
+        final var written = new ByteArrayOutputStream();
+        try (var writer = new ZipWriter(written)) {
+            writer.put("written.txt", IN_RANGE, new byte[0]);
+        }
+
+        for (final byte[] archive : List.of(out.toByteArray(), written.toByteArray())) {
+            for (final var entry : ZipReader.read(ByteBuffer.wrap(roundTrip(archive)))) {
+                assertEquals(0, entry.raw().size(), entry.name());
+                assertArrayEquals(new byte[0], entry.raw().inflate(), entry.name());
+            }
+        }
+    }
+
+    @Test
+    void keepsTimestampsOutsideDosRange(@TempDir Path dir) throws IOException {
+        final long[] times = {IN_RANGE, BEFORE_1980, 0, AFTER_2107};
+        final var out = new ByteArrayOutputStream();
+        try (var writer = new ZipWriter(out)) {
+            for (int i = 0; i < times.length; i++) {
+                writer.put("file" + i, times[i], new byte[]{(byte) i});
+            }
+        }
+
+        final var entries = ZipReader.read(ByteBuffer.wrap(roundTrip(out.toByteArray())));
+        final Path path = dir.resolve("times.zip");
+        Files.write(path, out.toByteArray());
+        try (var zip = new ZipFile(path.toFile())) {
+            for (int i = 0; i < times.length; i++) {
+                assertEquals(times[i], entries.get(i).time(), "file" + i);
+                // The JDK must agree on the times
+                assertEquals(times[i], zip.getEntry("file" + i).getTime(), "file" + i);
+            }
+        }
+    }
+
+    @Test
+    void readsDataDescriptorEntries() throws IOException {
+        final Map<String, byte[]> files = new LinkedHashMap<>();
+        files.put("a.txt", "a".repeat(1000).getBytes(StandardCharsets.UTF_8));
+        files.put("b.bin", new byte[]{1, 2, 3});
+        final var out = new ByteArrayOutputStream();
+        // Deflated entries are written before their sizes and CRC are known, which follow the data in a descriptor
+        try (var zip = new ZipOutputStream(out)) {
+            for (var file : files.entrySet()) {
+                zip.putNextEntry(new ZipEntry(file.getKey()));
+                zip.write(file.getValue());
+            }
+        }
+        final byte[] archive = out.toByteArray();
+        assertTrue(hasDataDescriptor(archive), "Expected a data descriptor");
+
+        final var entries = ZipReader.read(ByteBuffer.wrap(archive));
+        assertEquals(files.size(), entries.size());
+        for (final var entry : entries) {
+            assertArrayEquals(files.get(entry.name()), entry.raw().inflate(), entry.name());
+        }
+        // The sizes are known when copying, so the copy has no descriptors
+        assertFalse(hasDataDescriptor(roundTrip(archive)), "Expected no data descriptor");
+    }
+
+    @Test
+    void inflatesIntoOffHeapBuffers() throws IOException {
+        final byte[] data = "data".repeat(100_000).getBytes(StandardCharsets.UTF_8);
+        final var deflated = ZipWriter.deflate(data);
+        final var stored = new RawEntry(ZipEntry.STORED, deflated.crc(), data.length, ByteBuffer.wrap(data));
+        try (var store = PayloadStore.offHeap().get()) {
+            for (final var raw : List.of(deflated, stored)) {
+                final var out = store.allocate(data.length);
+                raw.inflate(out);
+                final byte[] inflated = new byte[data.length];
+                out.flip().get(inflated);
+                assertArrayEquals(data, inflated);
+            }
+        }
+    }
+
+    @Test
+    void rejectsTruncatedEntries() {
+        final var raw = ZipWriter.deflate("data".repeat(1000).getBytes(StandardCharsets.UTF_8));
+        final var truncated = new RawEntry(raw.method(), raw.crc(), raw.size(), raw.compressed().slice(0, raw.compressed().remaining() / 2));
+        assertThrows(ZipException.class, truncated::inflate);
+    }
+
+    @Test
+    void rejectsCorruptedEntries() {
+        final byte[] data = "data".repeat(1000).getBytes(StandardCharsets.UTF_8);
+        final var deflated = ZipWriter.deflate(data);
+        final var stored = new RawEntry(ZipEntry.STORED, deflated.crc(), data.length, ByteBuffer.wrap(data.clone()));
+        stored.compressed().put(0, (byte) 'D');
+        assertThrows(ZipException.class, stored::inflate);
+
+        final var wrongCrc = new RawEntry(deflated.method(), deflated.crc() ^ 1, deflated.size(), deflated.compressed());
+        assertThrows(ZipException.class, () -> wrongCrc.inflate(ByteBuffer.allocateDirect(data.length)));
+    }
+
+    @Test
+    void handlesTheMostEntriesWithoutZip64() throws IOException {
+        final var out = new ByteArrayOutputStream();
+        try (var writer = new ZipWriter(out)) {
+            for (int i = 0; i < 0xFFFF; i++) {
+                writer.putDirectory(i + "/", IN_RANGE);
+            }
+        }
+        assertEquals(0xFFFF, ZipReader.read(ByteBuffer.wrap(out.toByteArray())).size());
+    }
+
+    @Test
+    void leavesArchivesUnfinishedAfterFailures() throws IOException {
+        final var out = new ByteArrayOutputStream();
+        try (var writer = new ZipWriter(out)) {
+            for (int i = 0; i < 0xFFFF; i++) {
+                writer.putDirectory(i + "/", IN_RANGE);
+            }
+            final var exception = assertThrows(ZipException.class, () -> writer.putDirectory("last/", IN_RANGE));
+            assertTrue(exception.getMessage().contains("65535"), exception.getMessage());
+            assertThrows(ZipException.class, () -> writer.put("file.txt", IN_RANGE, new byte[1]));
+        }
+        // The archive must not pass for a complete one without the failed entries
+        assertThrows(ZipException.class, () -> ZipReader.read(ByteBuffer.wrap(out.toByteArray())));
+    }
+
+    @Test
+    void rejectsZip64Archives() throws IOException {
+        final var out = new ByteArrayOutputStream();
+        // The JDK switches to ZIP64 past 65535 entries
+        try (var zip = new ZipOutputStream(out)) {
+            for (int i = 0; i <= 0xFFFF; i++) {
+                zip.putNextEntry(new ZipEntry(i + "/"));
+            }
+        }
+        final var exception = assertThrows(ZipException.class, () -> ZipReader.read(ByteBuffer.wrap(out.toByteArray())));
+        assertTrue(exception.getMessage().contains("ZIP64"), exception.getMessage());
+    }
+
+    @Test
+    void rejectsZip64Entries() throws IOException {
+        final var out = new ByteArrayOutputStream();
+        try (var writer = new ZipWriter(out)) {
+            writer.put("a.txt", IN_RANGE, new byte[]{1});
+        }
+        // Mark the compressed size of the central directory header as stored in the ZIP64 extra field
+        final var archive = ByteBuffer.wrap(out.toByteArray()).order(ByteOrder.LITTLE_ENDIAN);
+        final int central = archive.getInt(archive.limit() - ZipReader.END_HEADER_SIZE + 16);
+        archive.putInt(central + 20, 0xFFFFFFFF);
+
+        final var exception = assertThrows(ZipException.class, () -> ZipReader.read(archive));
+        assertTrue(exception.getMessage().contains("ZIP64"), exception.getMessage());
+    }
+
+    @Test
+    void rejectsOverflowingEntryCounts() throws IOException {
+        final var out = new ByteArrayOutputStream();
+        try (var writer = new ZipWriter(out)) {
+            for (int i = 0; i < 3; i++) {
+                writer.put(i + ".txt", IN_RANGE, new byte[]{(byte) i});
+            }
+        }
+        // Writers without ZIP64 support write the count of an archive with 65537 entries as 1
+        final var archive = ByteBuffer.wrap(out.toByteArray()).order(ByteOrder.LITTLE_ENDIAN);
+        archive.putShort(archive.limit() - ZipReader.END_HEADER_SIZE + 8, (short) 1);
+        archive.putShort(archive.limit() - ZipReader.END_HEADER_SIZE + 10, (short) 1);
+
+        final var exception = assertThrows(ZipException.class, () -> ZipReader.read(archive));
+        assertTrue(exception.getMessage().contains("65535"), exception.getMessage());
+    }
+
+    /**
+     * Copy the entries of the given archive into a new one, and check that the copy holds the same entries.
+     */
+    private static byte[] roundTrip(byte[] archive) throws IOException {
+        final var entries = ZipReader.read(ByteBuffer.wrap(archive));
+        final var out = new ByteArrayOutputStream();
+        try (var writer = new ZipWriter(out)) {
+            for (final var entry : entries) {
+                if (entry.isDirectory()) {
+                    writer.putDirectory(entry.name(), entry.time());
+                } else {
+                    writer.putRaw(entry.name(), entry.time(), entry.raw());
+                }
+            }
+        }
+        final byte[] copy = out.toByteArray();
+
+        final var copied = ZipReader.read(ByteBuffer.wrap(copy));
+        assertEquals(entries.size(), copied.size());
+        for (int i = 0; i < entries.size(); i++) {
+            final var expected = entries.get(i);
+            final var actual = copied.get(i);
+            assertEquals(expected.name(), actual.name());
+            assertEquals(expected.time(), actual.time(), expected.name());
+            if (expected.isDirectory())
+                continue;
+            // Files are copied as-is, without being inflated and deflated again
+            assertEquals(expected.raw().method(), actual.raw().method(), expected.name());
+            assertEquals(expected.raw().crc(), actual.raw().crc(), expected.name());
+            assertEquals(expected.raw().size(), actual.raw().size(), expected.name());
+            assertEquals(expected.raw().compressed(), actual.raw().compressed(), expected.name());
+        }
+        assertEquals(contents(archive), contents(copy));
+        return copy;
+    }
+
+    /**
+     * {@return the contents of the entries of the given archive as read by the JDK, in hex}
+     */
+    private static Map<String, String> contents(byte[] archive) throws IOException {
+        final Map<String, String> contents = new LinkedHashMap<>();
+        try (var zip = new ZipInputStream(new ByteArrayInputStream(archive))) {
+            for (ZipEntry entry = zip.getNextEntry(); entry != null; entry = zip.getNextEntry()) {
+                contents.put(entry.getName(), HexFormat.of().formatHex(zip.readAllBytes()));
+            }
+        }
+        return contents;
+    }
+
+    private static boolean hasDataDescriptor(byte[] archive) {
+        return (ByteBuffer.wrap(archive).order(ByteOrder.LITTLE_ENDIAN).getShort(6) & 8) != 0;
+    }
+
+    /**
+     * {@return a jar with a manifest, directories, and stored, deflated and empty files}
+     */
+    private static byte[] jar() throws IOException {
+        final var manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        final var out = new ByteArrayOutputStream();
+        try (var jar = new JarOutputStream(out, manifest)) {
+            for (final String name : List.of("net/", "net/neoforged/")) {
+                final var entry = new ZipEntry(name);
+                entry.setTime(IN_RANGE);
+                jar.putNextEntry(entry);
+            }
+
+            final var deflated = new ZipEntry("net/neoforged/Deflated.class");
+            deflated.setTime(IN_RANGE);
+            jar.putNextEntry(deflated);
+            jar.write("class".repeat(1000).getBytes(StandardCharsets.UTF_8));
+
+            final byte[] data = {1, 2, 3, 4};
+            final var crc = new CRC32();
+            crc.update(data);
+            final var stored = new ZipEntry("net/neoforged/stored.bin");
+            stored.setMethod(ZipEntry.STORED);
+            stored.setSize(data.length);
+            stored.setCrc(crc.getValue());
+            stored.setTime(BEFORE_1980);
+            jar.putNextEntry(stored);
+            jar.write(data);
+
+            final var empty = new ZipEntry("empty.txt");
+            empty.setTime(IN_RANGE);
+            jar.putNextEntry(empty);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Sign the given jar with a fresh self-signed key.
+     */
+    private static byte[] sign(byte[] jar, Path dir) throws Exception {
+        final Path keystore = dir.resolve("keystore.p12");
+        final char[] password = "password".toCharArray();
+        final var keytool = new ProcessBuilder(Path.of(System.getProperty("java.home"), "bin", "keytool").toString(),
+                "-genkeypair", "-keystore", keystore.toString(), "-storepass", "password", "-alias", "test",
+                "-keyalg", "EC", "-dname", "CN=Test", "-validity", "1")
+                .redirectErrorStream(true)
+                .start();
+        final String output = new String(keytool.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+        assertEquals(0, keytool.waitFor(), output);
+
+        final var store = KeyStore.getInstance(keystore.toFile(), password);
+        final var key = (PrivateKey) store.getKey("test", password);
+        final var certificates = CertificateFactory.getInstance("X.509").generateCertPath(Arrays.asList(store.getCertificateChain("test")));
+
+        final Path unsigned = dir.resolve("unsigned.jar");
+        Files.write(unsigned, jar);
+        final var out = new ByteArrayOutputStream();
+        try (var zip = new ZipFile(unsigned.toFile())) {
+            new JarSigner.Builder(key, certificates).build().sign(zip, out);
+        }
+        return out.toByteArray();
+    }
+}